@@ -0,0 +1,79 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The same population held as one object per animal and as columns in an AnimalStore.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class AnimalStoreBenchmarks {
+    @Param({"100000", "1000000"})
+    public int animals;
+
+    private List<Animal> objects;
+    private AnimalStore store;
+
+    @Setup
+    public void setUp() {
+        String[] species = Species.names().toArray(new String[0]);
+        Enclosure[] enclosures = new Enclosure[64];
+        for (int e = 0; e < enclosures.length; e++) enclosures[e] = new Enclosure("Enclosure " + e);
+        objects = new ArrayList<>(animals);
+        store = new AnimalStore(animals);
+        for (int i = 0; i < animals; i++) {
+            String name = "Animal " + i;
+            Enclosure enclosure = enclosures[i % enclosures.length];
+            objects.add(Species.create(species[i % species.length], name, enclosure));
+            int slot = store.add(species[i % species.length], name, enclosure);
+            if (i % 50 == 0) {
+                objects.get(i).setHealthy(false);
+                store.setHealthy(slot, false);
+            }
+        }
+    }
+
+    @Benchmark
+    public int countSickObjects() {
+        int sick = 0;
+        for (Animal a : objects) {
+            if (!a.isHealthy()) sick++;
+        }
+        return sick;
+    }
+
+    @Benchmark
+    public int countSickStore() {
+        return store.countSick();
+    }
+
+    @Benchmark
+    public Map<Building, Integer> countByLocationObjects() {
+        Map<Building, Integer> counts = new HashMap<>();
+        for (Animal a : objects) counts.merge(a.getLocation(), 1, Integer::sum);
+        return counts;
+    }
+
+    @Benchmark
+    public Map<Building, Integer> countByLocationStore() {
+        return store.countByLocation();
+    }
+}
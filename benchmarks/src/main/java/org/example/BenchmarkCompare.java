@@ -0,0 +1,95 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compares two JMH CSV result files (-rf csv) benchmark by benchmark and exits non-zero when
+// any score regressed by more than the threshold percentage.
+//
+// Usage: java -cp benchmarks.jar org.example.BenchmarkCompare baseline.csv current.csv [thresholdPercent]
+public class BenchmarkCompare {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkCompare <baseline.csv> <current.csv> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+        Map<String, Result> baseline = read(Path.of(args[0]));
+        Map<String, Result> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "Benchmark", "Baseline", "Current", "Change");
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s%n", entry.getKey(), "-", now.score, "new");
+                continue;
+            }
+            // Positive change is always an improvement: more ops/time, or less time/op.
+            double change = (now.score - before.score) / before.score * 100.0;
+            if (!now.higherIsBetter()) change = -change;
+            boolean regressed = change < -threshold;
+            if (regressed) regressions++;
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%%s%n", entry.getKey(), before.score, now.score, change, regressed ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d benchmark(s) regressed by more than %.1f%%%n", regressions, threshold);
+        if (regressions > 0) System.exit(1);
+    }
+
+    private static Map<String, Result> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        List<String> header = parse(lines.get(0));
+        int benchmark = header.indexOf("Benchmark"), mode = header.indexOf("Mode"), threads = header.indexOf("Threads");
+        int score = header.indexOf("Score"), unit = header.indexOf("Unit");
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> row = parse(line);
+            StringBuilder key = new StringBuilder(row.get(benchmark)).append(' ').append(row.get(mode)).append(" t=").append(row.get(threads));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !row.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(row.get(i));
+                }
+            }
+            results.put(key.toString(), new Result(Double.parseDouble(row.get(score)), row.get(mode), row.get(unit)));
+        }
+        return results;
+    }
+
+    private static List<String> parse(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else field.append(c);
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static class Result {
+        final double score;
+        final String mode;
+        final String unit;
+
+        Result(double score, String mode, String unit) {
+            this.score = score;
+            this.mode = mode;
+            this.unit = unit;
+        }
+
+        boolean higherIsBetter() { return mode.equals("thrpt") || unit.startsWith("ops/"); }
+    }
+}
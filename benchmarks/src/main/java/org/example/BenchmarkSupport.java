@@ -0,0 +1,35 @@
+package org.example;
+
+// Shared helpers: domain classes narrate every action, which would dominate every measurement.
+final class BenchmarkSupport {
+    private static EventSink previous;
+
+    private BenchmarkSupport() { }
+
+    static synchronized void silenceConsole() {
+        if (previous == null) {
+            previous = ZooEvents.getGlobalSink();
+            ZooEvents.setGlobalSink(EventSink.NONE);
+        }
+    }
+
+    static synchronized void restoreConsole() {
+        if (previous != null) {
+            ZooEvents.setGlobalSink(previous);
+            previous = null;
+        }
+    }
+
+    // Feeds the same scripted answers to a module over and over and discards its output.
+    static final class ScriptedSessionIO implements SessionIO {
+        private final String[] lines;
+        private int next;
+
+        ScriptedSessionIO(String... lines) { this.lines = lines; }
+
+        @Override public String readLine() { return lines[next++ % lines.length]; }
+        @Override public void print(String text) { }
+        @Override public void println(String text) { }
+        @Override public void printf(String format, Object... args) { }
+    }
+}
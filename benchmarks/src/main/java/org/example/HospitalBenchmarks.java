@@ -0,0 +1,90 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each invocation heals a freshly filled ward, so these run as single-shot measurements.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class HospitalBenchmarks {
+    private static final int VETS = 4;
+
+    @Param({"1000", "100000"})
+    public int ward;
+
+    private Zoo zoo;
+    private Hospital hospital;
+    private Handler handler;
+    private List<Animal> patients;
+    private List<Veterinarian> vets;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceConsole();
+        zoo = new Zoo();
+        zoo.initializeDefaultState();
+        hospital = zoo.getHospital();
+        // Small enclosures, so moving patients to and from the ward measures the hospital, not the index.
+        List<Enclosure> enclosures = new ArrayList<>();
+        for (int e = 0; e < (ward + 99) / 100; e++) {
+            Enclosure enclosure = new Enclosure("Ward Enclosure " + e);
+            zoo.addBuilding(enclosure);
+            enclosures.add(enclosure);
+        }
+        handler = new Handler("Bench Handler", enclosures.get(0));
+        patients = new ArrayList<>(ward);
+        for (int i = 0; i < ward; i++) patients.add(new Tiger("Patient " + i, enclosures.get(i / 100)));
+        zoo.addAnimals(patients);
+        vets = new ArrayList<>();
+        for (int i = 0; i < VETS; i++) vets.add(new Veterinarian("Vet " + i, hospital));
+        pool = Executors.newFixedThreadPool(VETS);
+    }
+
+    @Setup(Level.Invocation)
+    public void fillWard() {
+        for (Animal patient : patients) handler.examine(patient, zoo);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+        BenchmarkSupport.restoreConsole();
+    }
+
+    @Benchmark
+    public int healAll() {
+        zoo.getVeterinarian().healAll(hospital);
+        return hospital.getWardSize();
+    }
+
+    @Benchmark
+    public int healAllParallel() throws Exception {
+        List<Future<?>> rounds = new ArrayList<>(VETS);
+        for (Veterinarian vet : vets) rounds.add(pool.submit(() -> vet.healAll(hospital)));
+        for (Future<?> round : rounds) round.get();
+        return hospital.getWardSize();
+    }
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Read paths used on every HandlerModule and VisitorModule interaction, at growing zoo sizes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmarks {
+    @Param({"1000", "10000", "100000"})
+    public int animals;
+
+    @Param({"100000"})
+    public int visitors;
+
+    private Zoo zoo;
+    private Enclosure[] enclosures;
+    private String[] handlerNames;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceConsole();
+        zoo = new Zoo();
+        zoo.initializeDefaultState();
+        int enclosureCount = Math.max(1, animals / 100);
+        List<String> species = new ArrayList<>(Species.names());
+        enclosures = new Enclosure[enclosureCount];
+        handlerNames = new String[enclosureCount];
+        for (int e = 0; e < enclosureCount; e++) {
+            enclosures[e] = new Enclosure("Enclosure " + e);
+            zoo.addBuilding(enclosures[e]);
+            handlerNames[e] = "HANDLER " + e;
+            zoo.addPerson(new Handler("Handler " + e, enclosures[e]));
+        }
+        List<Animal> batch = new ArrayList<>(animals);
+        for (int a = 0; a < animals; a++) {
+            batch.add(Species.create(species.get(a % species.size()), "Animal " + a, enclosures[a % enclosureCount]));
+        }
+        zoo.addAnimals(batch);
+        for (int v = 0; v < visitors; v++) zoo.addPerson(new Visitor("Visitor " + v, zoo.getTicketShop()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { BenchmarkSupport.restoreConsole(); }
+
+    @Benchmark
+    public List<Animal> getAnimalsInEnclosure(Cursor cursor) {
+        return zoo.getAnimalsInEnclosure(enclosures[cursor.next++ % enclosures.length]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Animal> getAnimalsInEnclosureContended(Cursor cursor) {
+        return zoo.getAnimalsInEnclosure(enclosures[cursor.next++ % enclosures.length]);
+    }
+
+    @Benchmark
+    public List<Enclosure> getEnclosures() {
+        return zoo.getEnclosures();
+    }
+
+    @Benchmark
+    public Handler findHandlerByName(Cursor cursor) {
+        return zoo.findHandlerByName(handlerNames[cursor.next++ % handlerNames.length]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Handler findHandlerByNameContended(Cursor cursor) {
+        return zoo.findHandlerByName(handlerNames[cursor.next++ % handlerNames.length]);
+    }
+}
@@ -0,0 +1,61 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// A full VisitorModule.visitShop round: pick three products, finish, check out.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShopBenchmarks {
+    private Zoo zoo;
+
+    @State(Scope.Thread)
+    public static class Shopper {
+        VisitorModule module;
+
+        @Setup(Level.Trial)
+        public void setUp(ShopBenchmarks bench) {
+            Visitor visitor = new Visitor("Shopper", bench.zoo.getTicketShop());
+            module = new VisitorModule(visitor, bench.zoo, new BenchmarkSupport.ScriptedSessionIO("1 2 3", "0", "yes"));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkSupport.silenceConsole();
+        zoo = new Zoo();
+        zoo.initializeDefaultState();
+        zoo.setOpen(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { BenchmarkSupport.restoreConsole(); }
+
+    @Benchmark
+    public void checkout(Shopper shopper) {
+        shopper.module.visitShop();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void checkoutContended(Shopper shopper) {
+        shopper.module.visitShop();
+    }
+}
@@ -0,0 +1,127 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TicketBenchmarks {
+    private static final int SAMPLE = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    public int tickets;
+
+    private Zoo zoo;
+    private String[] issued;
+    private int mask;
+    private String badCheckDigit;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    // A fresh zoo per iteration keeps ticket issuance from growing the population across the run.
+    @State(Scope.Benchmark)
+    public static class Desk {
+        volatile Zoo zoo;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            BenchmarkSupport.silenceConsole();
+            Zoo fresh = new Zoo();
+            fresh.initializeDefaultState();
+            zoo = fresh;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        zoo = new Zoo();
+        issued = new String[Integer.highestOneBit(Math.min(SAMPLE, tickets))];
+        mask = issued.length - 1;
+        TicketCodeGenerator generator = zoo.getTicketCodeGenerator();
+        for (int i = 0; i < tickets; i++) {
+            String code = generator.next();
+            zoo.addValidTicket(code);
+            issued[i & mask] = code;
+        }
+        String code = issued[0];
+        char last = code.charAt(code.length() - 1);
+        badCheckDigit = code.substring(0, code.length() - 1) + (last == '0' ? '1' : '0');
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() { BenchmarkSupport.restoreConsole(); }
+
+    @Benchmark
+    public boolean validateTicket(Cursor cursor) {
+        return zoo.validateTicket(issued[cursor.next++ & mask]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean validateTicketContended(Cursor cursor) {
+        return zoo.validateTicket(issued[cursor.next++ & mask]);
+    }
+
+    @Benchmark
+    public boolean rejectBadCheckDigit() {
+        return zoo.validateTicket(badCheckDigit);
+    }
+
+    @Benchmark
+    public String generateCode() {
+        return zoo.getTicketCodeGenerator().next();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String generateCodeContended() {
+        return zoo.getTicketCodeGenerator().next();
+    }
+
+    @Benchmark
+    public Visitor issueTicket(Desk desk, ModuleCursor cursor) {
+        return cursor.module(desk).start();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Visitor issueTicketContended(Desk desk, ModuleCursor cursor) {
+        return cursor.module(desk).start();
+    }
+
+    // TicketingModule keeps no state of its own, but ScriptedSessionIO does; one per thread.
+    @State(Scope.Thread)
+    public static class ModuleCursor {
+        private Zoo zoo;
+        private TicketingModule module;
+
+        TicketingModule module(Desk desk) {
+            if (zoo != desk.zoo) {
+                zoo = desk.zoo;
+                module = new TicketingModule(zoo, new BenchmarkSupport.ScriptedSessionIO("yes", "Visitor", "30", "yes"));
+            }
+            return module;
+        }
+    }
+}
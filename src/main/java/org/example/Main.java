@@ -1,90 +1,539 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.text.Normalizer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class Main {
-    public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
+    private static final byte[] MENU = RenderCache.menu("", "", "=== WELCOME TO THE ZOO SIMULATION ===",
+            "1. Administrator Console", "2. Visitor Ticketing & Entry", "3. Exit Simulation", "Choose an option: ");
+    private static final Duration GATE_WAIT = Duration.ofMinutes(30);
+    private static final DateTimeFormatter SLOT_TIME = DateTimeFormatter.ofPattern("HH:mm");
+
+    public static void main(String[] args) throws IOException {
+        installEventSink();
         Zoo zoo = new Zoo();
-        zoo.initializeDefaultState();
+        String dataDir = System.getProperty("zoo.data.dir");
+        if (dataDir != null) {
+            ZooPersistence persistence = new ZooPersistence(Path.of(dataDir));
+            if (!persistence.restore(zoo)) initialize(zoo);
+            persistence.attach(zoo, Duration.ofMinutes(5));
+            Hospital hospital = zoo.getHospital();
+            if (hospital != null) hospital.getHealedLog().persistTo(Path.of(dataDir, "healed"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    persistence.close();
+                } catch (IOException e) {
+                    System.err.println("Final checkpoint failed: " + e.getMessage());
+                }
+                try {
+                    if (hospital != null) hospital.getHealedLog().close();
+                } catch (IOException e) {
+                    System.err.println("Healed-animal history not flushed: " + e.getMessage());
+                }
+            }));
+        } else {
+            initialize(zoo);
+        }
+        limitAdmissions(zoo);
+        MetricsServer metricsServer = startMetrics(zoo);
+        startRecoveryClock(zoo);
+        if (Boolean.getBoolean("zoo.care.auto")) zoo.getCareScheduler().start();
 
+        if (args.length > 0 && args[0].equals("--server")) {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : ZooServer.DEFAULT_PORT;
+            zoo.setOpen(true);
+            new ZooServer(zoo).listen(port);
+            return;
+        }
+
+        SessionIO io = new ConsoleSessionIO(new Scanner(System.in), System.out);
         while (true) {
-            System.out.println("\n\n=== WELCOME TO THE ZOO SIMULATION ===");
-            System.out.println("1. Administrator Console");
-            System.out.println("2. Visitor Ticketing & Entry");
-            System.out.println("3. Exit Simulation");
-            System.out.print("Choose an option: ");
-            String choice = scanner.nextLine();
+            io.write(MENU);
+            String choice = io.readLine();
 
             switch (choice) {
                 case "1":
-                    AdminConsole adminConsole = new AdminConsole(zoo, scanner);
+                    AdminConsole adminConsole = new AdminConsole(zoo, io);
                     adminConsole.start();
                     break;
                 case "2":
-                    TicketingModule ticketingModule = new TicketingModule(zoo, scanner);
-                    Visitor visitor = ticketingModule.start();
-                    if (visitor != null) {
-                        System.out.println("\n=== Visitor Entry ===");
-                        System.out.print("Enter your ticket code: ");
-                        String enteredCode = scanner.nextLine();
-                        if (zoo.validateTicket(enteredCode)) {
-                            System.out.println("Welcome, " + visitor.getName() + "! Enjoy your visit.");
-                            VisitorModule visitorModule = new VisitorModule(visitor, zoo, scanner);
-                            visitorModule.start();
-                        } else {
-                            System.out.println("Invalid ticket code. Entry denied.");
-                        }
-                    }
+                    runVisitorSession(zoo, io);
                     break;
                 case "3":
-                    System.out.println("Exiting simulation. Goodbye!");
+                    io.println("Exiting simulation. Goodbye!");
+                    if (metricsServer != null) metricsServer.close();
                     return;
                 default:
-                    System.out.println("Invalid option. Please try again.");
+                    io.println("Invalid option. Please try again.");
+            }
+        }
+    }
+
+    private static void initialize(Zoo zoo) throws IOException {
+        String config = System.getProperty("zoo.config");
+        if (config == null) {
+            zoo.initializeDefaultState();
+            return;
+        }
+        ZooLoader.load(zoo, Path.of(config)).print(System.out);
+    }
+
+    // -Dzoo.events=console (default), async (rendered on a background thread), binary (ids only,
+    // written to -Dzoo.events.file on exit) or none.
+    private static void installEventSink() {
+        String mode = System.getProperty("zoo.events", "console");
+        switch (mode) {
+            case "console": break;
+            case "none": ZooEvents.setGlobalSink(EventSink.NONE); break;
+            case "async": {
+                AsyncTextEventSink sink = new AsyncTextEventSink(System.out, 1 << 16);
+                ZooEvents.setGlobalSink(sink);
+                Runtime.getRuntime().addShutdownHook(new Thread(sink::close));
+                break;
+            }
+            case "binary": {
+                BinaryEventSink sink = new BinaryEventSink(Integer.getInteger("zoo.events.capacity", 1 << 20));
+                Path file = Path.of(System.getProperty("zoo.events.file", "zoo-events.bin"));
+                ZooEvents.setGlobalSink(sink);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        sink.writeTo(channel);
+                    } catch (IOException e) {
+                        System.err.println("Could not write events to " + file + ": " + e.getMessage());
+                    }
+                }));
+                break;
+            }
+            default: throw new IllegalArgumentException("zoo.events must be console, async, binary or none: " + mode);
+        }
+    }
+
+    // -Dzoo.capacity=<visitors> and -Dzoo.queue=<length> apply on top of the config, and also to a
+    // restored zoo, whose limits are not part of the snapshot.
+    private static void limitAdmissions(Zoo zoo) {
+        Integer capacity = Integer.getInteger("zoo.capacity");
+        if (capacity != null) zoo.getAdmissions().setCapacity(capacity);
+        Integer queue = Integer.getInteger("zoo.queue");
+        if (queue != null) zoo.getAdmissions().setMaxQueue(queue);
+    }
+
+    private static MetricsServer startMetrics(Zoo zoo) throws IOException {
+        String port = System.getProperty("zoo.metrics.port");
+        if (port == null) return null;
+        MetricsServer server = new MetricsServer(zoo, Integer.parseInt(port));
+        System.out.println("Metrics available at http://localhost:" + server.getPort() + "/metrics");
+        return server;
+    }
+
+    // Ticks every hospital once a second, so treatments finish while the menus wait for input.
+    private static void startRecoveryClock(Zoo zoo) {
+        ScheduledExecutorService clock = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zoo-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        clock.scheduleAtFixedRate(() -> {
+            try {
+                zoo.tickHospitals();
+            } catch (RuntimeException e) {
+                System.err.println("Recovery tick failed: " + e.getMessage());
+            }
+        }, Hospital.TICK_MILLIS, Hospital.TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static void runVisitorSession(Zoo zoo, SessionIO io) {
+        TicketingModule ticketingModule = new TicketingModule(zoo, io);
+        Visitor visitor = ticketingModule.start();
+        if (visitor == null) return;
+        try {
+            io.println("\n=== Visitor Entry ===");
+            io.print("Enter your ticket code: ");
+            String enteredCode = io.readLine();
+            if (!zoo.validateTicket(enteredCode)) {
+                long slot = zoo.getAdmissions().getSlot(enteredCode);
+                io.println(slot < 0 ? "Invalid ticket code. Entry denied." : "Your ticket is for the " + slotTime(slot) + " entry slot. Entry denied.");
+                return;
+            }
+            if (passGate(zoo, visitor, io) && zoo.redeemTicket(enteredCode)) {
+                io.println("Welcome, " + visitor.getName() + "! Enjoy your visit.");
+                VisitorModule visitorModule = new VisitorModule(visitor, zoo, io);
+                visitorModule.start();
+            } else if (visitor.isAdmitted()) {
+                io.println("Invalid ticket code. Entry denied.");
+            }
+        } finally {
+            // Bought a ticket but denied, turned away or disconnected: the visitor is gone either way.
+            visitor.leaveZoo();
+        }
+    }
+
+    private static boolean passGate(Zoo zoo, Visitor visitor, SessionIO io) {
+        AdmissionController.Admission admission = zoo.getAdmissions().enter(visitor);
+        switch (admission.getOutcome()) {
+            case ADMITTED:
+                return true;
+            case REJECTED:
+                io.println("Sorry, the zoo is at capacity. Please come back later.");
+                return false;
+            default:
+                io.println("The zoo is full right now. You are number " + admission.getPosition() + " in line; please wait...");
+                if (admission.await(GATE_WAIT)) return true;
+                io.println("Sorry, no place opened up in time. Please come back later.");
+                return false;
+        }
+    }
+
+    static String slotTime(long millis) {
+        return SLOT_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
+    }
+}
+
+interface SessionIO {
+    // Throws SessionClosedException once the other side has gone away.
+    String readLine();
+    void print(String text);
+    void println(String text);
+    void printf(String format, Object... args);
+    // Pre-encoded output from RenderCache; sessions that can take the bytes as they are skip decoding.
+    default void write(byte[] utf8) { print(new String(utf8, StandardCharsets.UTF_8)); }
+}
+
+class SessionClosedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public SessionClosedException(String message) { super(message); }
+}
+
+class ConsoleSessionIO implements SessionIO {
+    private final Scanner scanner;
+    private final PrintStream out;
+    private final boolean utf8;
+
+    public ConsoleSessionIO(Scanner scanner, PrintStream out) {
+        this.scanner = scanner;
+        this.out = out;
+        this.utf8 = out.charset().equals(StandardCharsets.UTF_8);
+    }
+
+    @Override public String readLine() { return scanner.nextLine(); }
+    @Override public void print(String text) { out.print(text); }
+    @Override public void println(String text) { out.println(text); }
+    @Override public void printf(String format, Object... args) { out.printf(format, args); }
+    @Override public void write(byte[] utf8) {
+        if (this.utf8) out.write(utf8, 0, utf8.length);
+        else out.print(new String(utf8, StandardCharsets.UTF_8));
+    }
+}
+
+// Works over a socket or any in-memory pipe. Text and pre-encoded bytes collect in one buffer
+// that goes out whenever the session waits for input, so a menu is one write.
+class StreamSessionIO implements SessionIO, AutoCloseable {
+    private final BufferedReader in;
+    private final OutputStream sink;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(1024);
+    private final PrintWriter out = new PrintWriter(new OutputStreamWriter(pending, StandardCharsets.UTF_8), false);
+
+    public StreamSessionIO(InputStream in, OutputStream out) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        this.sink = out;
+    }
+
+    @Override
+    public String readLine() {
+        try {
+            flush();
+            String line = in.readLine();
+            if (line == null) throw new SessionClosedException("End of input");
+            return line;
+        } catch (IOException e) {
+            throw new SessionClosedException(e.getMessage());
+        }
+    }
+    @Override public void print(String text) { out.print(text); }
+    @Override public void println(String text) { out.println(text); }
+    @Override public void printf(String format, Object... args) { out.printf(format, args); }
+    @Override public void write(byte[] utf8) {
+        out.flush();
+        pending.write(utf8, 0, utf8.length);
+    }
+    private void flush() throws IOException {
+        out.flush();
+        if (pending.size() == 0) return;
+        pending.writeTo(sink);
+        pending.reset();
+        sink.flush();
+    }
+    @Override public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            in.close();
+            sink.close();
+        }
+    }
+}
+
+// Menus and listings encoded to UTF-8 once, so a session writes them in one call instead of
+// formatting them line by line on every loop. Fixed menus are encoded when their class loads;
+// listings remember the snapshot version they were rendered from and are rendered again only
+// after the zoo's data has moved on.
+class RenderCache {
+    private static final String EOL = System.lineSeparator();
+    private final Listing<Enclosure> enclosures;
+    private final Map<Shop, Listing<Product>> products = new ConcurrentHashMap<>();
+
+    RenderCache(Zoo zoo) {
+        this.enclosures = new Listing<>(zoo.getEnclosuresView(), items -> {
+            StringBuilder text = new StringBuilder(EOL).append("==Zoo Enclosure==").append(EOL).append("Choose Enclosure:").append(EOL);
+            for (int i = 0; i < items.size(); i++) text.append(i + 1).append(". ").append(items.get(i).getName()).append(EOL);
+            return text.append("Choose an option: ").toString();
+        });
+    }
+
+    public Rendered<Enclosure> enclosures() { return enclosures.get(); }
+    public Rendered<Product> products(Shop shop) {
+        Listing<Product> listing = products.get(shop);
+        if (listing == null) listing = products.computeIfAbsent(shop, s -> new Listing<>(s.getProductsView(), RenderCache::productList));
+        return listing.get();
+    }
+
+    private static String productList(List<Product> items) {
+        StringBuilder text = new StringBuilder("Available Products:").append(EOL);
+        for (int i = 0; i < items.size(); i++) text.append(String.format("%d. %s - P%.2f%n", i + 1, items.get(i).getName(), items.get(i).getPrice()));
+        return text.append("Enter the numbers of the items you want to buy (e.g., 1 3, or 0 to finish): ").toString();
+    }
+
+    // Every line but the last is printed as a line; the last is the prompt left waiting for input.
+    static byte[] menu(String... lines) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines.length - 1; i++) text.append(lines[i]).append(EOL);
+        return text.append(lines[lines.length - 1]).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The bytes go with the exact items they show, so a choice is looked up in what was on screen.
+    static final class Rendered<T> {
+        final long version;
+        final List<T> items;
+        final byte[] bytes;
+        Rendered(long version, List<T> items, byte[] bytes) {
+            this.version = version;
+            this.items = items;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Listing<T> {
+        private final SnapshotView<T> source;
+        private final Function<List<T>, String> render;
+        private volatile Rendered<T> cached = new Rendered<>(-1, List.of(), new byte[0]);
+        Listing(SnapshotView<T> source, Function<List<T>, String> render) {
+            this.source = source;
+            this.render = render;
+        }
+        Rendered<T> get() {
+            Rendered<T> current = cached;
+            SnapshotView.Snapshot<T> snapshot = source.snapshot();
+            if (current.version == snapshot.version) return current;
+            Rendered<T> fresh = new Rendered<>(snapshot.version, snapshot.items, render.apply(snapshot.items).getBytes(StandardCharsets.UTF_8));
+            // A reader that rendered an older version late must not replace a newer rendering.
+            if (cached.version < fresh.version) cached = fresh;
+            return fresh;
+        }
+    }
+}
+
+// Each visitor session runs on its own virtual thread, so a blocked reader costs a few
+// hundred bytes of stack rather than a platform thread.
+class ZooServer implements AutoCloseable {
+    static final int DEFAULT_PORT = 7070;
+    private final Zoo zoo;
+    private final ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile ServerSocket serverSocket;
+
+    public ZooServer(Zoo zoo) { this.zoo = zoo; }
+
+    public void listen(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+        System.out.println("Zoo server listening on " + serverSocket.getLocalSocketAddress());
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) return;
+                throw e;
+            }
+            sessions.submit(() -> {
+                try (socket) {
+                    serve(socket.getInputStream(), socket.getOutputStream());
+                } catch (IOException e) {
+                    failed.increment();
+                }
+            });
+        }
+    }
+
+    // In-memory sessions, e.g. for load tests: the streams can be pipes or byte arrays.
+    public Future<?> open(InputStream in, OutputStream out) {
+        return sessions.submit(() -> serve(in, out));
+    }
+
+    private void serve(InputStream in, OutputStream out) {
+        StreamSessionIO io = new StreamSessionIO(in, out);
+        // Narration from this visitor's actions goes back down their own connection.
+        EventSink previous = ZooEvents.bind((event, subject, object) -> io.println(ZooEvents.text(event, subject, object)));
+        try {
+            Main.runVisitorSession(zoo, io);
+            completed.increment();
+        } catch (SessionClosedException | NumberFormatException e) {
+            failed.increment();
+        } catch (RuntimeException e) {
+            // A bug in one session must not take the connection thread down silently.
+            failed.increment();
+            System.err.println("Visitor session failed: " + e);
+        } finally {
+            ZooEvents.bind(previous);
+            try {
+                io.close();
+            } catch (IOException ignored) {
+                // The peer is already gone.
             }
         }
     }
+
+    public long getCompletedSessions() { return completed.sum(); }
+    public long getFailedSessions() { return failed.sum(); }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket != null) serverSocket.close();
+        sessions.close();
+    }
 }
 
 class AdminConsole {
+    private static final byte[] MENU = RenderCache.menu("", "========== \uD83D\uDC2F ZOO ADMIN MAIN MENU ==========",
+            "1. Setup Zoo Staff", "2. Access Handler Module", "3. Open Zoo to Visitors", "4. Close Zoo to Visitors",
+            "5. End-of-Day Report", "6. Exit", "Choose an option: ");
     private Zoo zoo;
-    private Scanner scanner;
+    private SessionIO io;
 
-    public AdminConsole(Zoo zoo, Scanner scanner) {
+    public AdminConsole(Zoo zoo, SessionIO io) {
         this.zoo = zoo;
-        this.scanner = scanner;
+        this.io = io;
     }
 
     public void start() {
-        System.out.println("\n=== Welcome to the Zoo Admin Console ===");
-        System.out.print("Enter username: ");
-        String username = scanner.nextLine();
-        System.out.print("Enter password: ");
-        String password = scanner.nextLine();
+        io.println("\n=== Welcome to the Zoo Admin Console ===");
+        io.print("Enter username: ");
+        String username = io.readLine();
+        io.print("Enter password: ");
+        String password = io.readLine();
 
         if ("admin".equals(username) && "adminadmin".equals(password)) {
-            System.out.println("Login successful. Welcome!");
+            io.println("Login successful. Welcome!");
             showAdminMenu();
         } else {
-            System.out.println("Login failed. Returning to main menu.");
+            io.println("Login failed. Returning to main menu.");
         }
     }
 
     private void showAdminMenu() {
         while (true) {
-            System.out.println("\n========== \uD83D\uDC2F ZOO ADMIN MAIN MENU ==========");
-            System.out.println("1. Setup Zoo Staff");
-            System.out.println("2. Access Handler Module");
-            System.out.println("3. Open Zoo to Visitors");
-            System.out.println("4. Close Zoo to Visitors");
-            System.out.println("5. Exit");
-            System.out.print("Choose an option: ");
-            String choice = scanner.nextLine();
+            io.write(MENU);
+            String choice = io.readLine();
 
             switch (choice) {
                 case "1":
@@ -95,55 +544,72 @@ class AdminConsole {
                     break;
                 case "3":
                     zoo.setOpen(true);
-                    System.out.println("The zoo is now open to visitors.");
+                    io.println("The zoo is now open to visitors.");
                     break;
                 case "4":
                     zoo.setOpen(false);
-                    System.out.println("The zoo is now closed to visitors.");
+                    io.println("The zoo is now closed to visitors.");
                     break;
                 case "5":
+                    DayBook book = zoo.getDayBook();
+                    DayBook previous = zoo.getPreviousDay();
+                    if (previous != null) {
+                        io.print("Report on today or the previous day? (today/previous): ");
+                        if (io.readLine().equalsIgnoreCase("previous")) book = previous;
+                    }
+                    DailyReport.compute(zoo, book).print(io);
+                    if (book != zoo.getDayBook()) break;
+                    io.print("Close the books and start a new day? (yes/no): ");
+                    if (io.readLine().equalsIgnoreCase("yes")) {
+                        zoo.startNewDay();
+                        io.println("A new day has begun.");
+                    }
+                    break;
+                case "6":
                     return;
                 default:
-                    System.out.println("Invalid option.");
+                    io.println("Invalid option.");
             }
         }
     }
 
     private void setupStaff() {
-        System.out.println("\n--- Zoo Setup ---");
-        System.out.print("Enter your name, Manager: ");
-        zoo.setManager(new Manager(scanner.nextLine(), null));
-        System.out.print("Enter Veterinarian's name: ");
-        zoo.setVeterinarian(new Veterinarian(scanner.nextLine(), zoo.getHospital()));
+        io.println("\n--- Zoo Setup ---");
+        io.print("Enter your name, Manager: ");
+        zoo.setManager(new Manager(io.readLine(), null));
+        io.print("Enter Veterinarian's name: ");
+        zoo.setVeterinarian(new Veterinarian(io.readLine(), zoo.getHospital()));
 
         for(Building b : zoo.getBuildings()){
             if(b instanceof Enclosure){
-                System.out.print("Enter Handler for " + b.getName() + ": ");
-                zoo.addPerson(new Handler(scanner.nextLine(), b));
+                io.print("Enter Handler for " + b.getName() + ": ");
+                zoo.addPerson(new Handler(io.readLine(), b));
             }
             if(b instanceof TicketShop){
-                System.out.print("Enter Vendor for Ticket Shop: ");
-                zoo.addPerson(new Vendor(scanner.nextLine(), b));
+                io.print("Enter Vendor for Ticket Shop: ");
+                zoo.addPerson(new Vendor(io.readLine(), b));
             } else if (b instanceof Shop && !(b instanceof TicketShop)){
-                System.out.print("Enter Vendor for " + b.getName() + ": ");
-                zoo.addPerson(new Vendor(scanner.nextLine(), b));
+                io.print("Enter Vendor for " + b.getName() + ": ");
+                zoo.addPerson(new Vendor(io.readLine(), b));
             }
         }
-        System.out.println("Zoo staff setup complete.");
+        io.println("Zoo staff setup complete.");
     }
 
     private void accessHandlerModule() {
-        System.out.print("Enter your name (Handler): ");
-        String name = scanner.nextLine();
+        io.print("Enter your name (Handler): ");
+        String name = io.readLine();
         Handler handler = zoo.findHandlerByName(name);
 
         if (handler == null) {
-            System.out.println("Handler not found.");
+            io.println("Handler not found.");
+            List<Person> similar = zoo.getDirectory().search(PersonDirectory.Role.HANDLER, name.isBlank() ? "" : name.trim().substring(0, 1), 5);
+            if (!similar.isEmpty()) io.println("Did you mean: " + similar.stream().map(Person::getName).collect(Collectors.joining(", ")) + "?");
             return;
         }
 
-        System.out.println("Welcome, Handler " + handler.getName() + "!");
-        HandlerModule handlerModule = new HandlerModule(handler, zoo, scanner);
+        io.println("Welcome, Handler " + handler.getName() + "!");
+        HandlerModule handlerModule = new HandlerModule(handler, zoo, io);
         handlerModule.start();
     }
 }
@@ -151,45 +617,52 @@ class AdminConsole {
 class HandlerModule {
     private Handler handler;
     private Zoo zoo;
-    private Scanner scanner;
-    private List<Animal> assignedAnimals;
+    private SessionIO io;
 
-    public HandlerModule(Handler handler, Zoo zoo, Scanner scanner) {
+    public HandlerModule(Handler handler, Zoo zoo, SessionIO io) {
         this.handler = handler;
         this.zoo = zoo;
-        this.scanner = scanner;
-        this.assignedAnimals = zoo.getAnimalsInEnclosure((Enclosure) handler.getLocation());
+        this.io = io;
     }
 
     public void start() {
         while (true) {
-            System.out.println("\n--- Animal Duty Menu ---");
-            System.out.println("Animals assigned to you:");
+            // Re-read every time: animals come and go as they are admitted and discharged.
+            List<Animal> assignedAnimals = zoo.getAnimalsInEnclosure((Enclosure) handler.getLocation());
+            int[] due = zoo.getCareScheduler().getDue(handler.getLocation());
+            io.println("\n--- Animal Duty Menu ---");
+            io.println("Animals assigned to you:");
             for (int i = 0; i < assignedAnimals.size(); i++) {
-                System.out.println((i + 1) + ". " + assignedAnimals.get(i).getName());
+                io.println((i + 1) + ". " + assignedAnimals.get(i).getName());
+            }
+            io.println("Due now: " + due[CareScheduler.Task.FEEDING.ordinal()] + " feedings, " + due[CareScheduler.Task.EXERCISE.ordinal()] + " exercise sessions.");
+            io.print("Choose animal number to interact with (R to run the care round, 0 to exit): ");
+            String input = io.readLine();
+            if (input.equalsIgnoreCase("r")) {
+                io.println("Care round done: " + zoo.getCareScheduler().runRound(handler) + " tasks.");
+                continue;
             }
-            System.out.print("Choose animal number to interact with (0 to exit): ");
-            int choice = Integer.parseInt(scanner.nextLine());
+            int choice = Integer.parseInt(input);
 
             if (choice == 0) {
-                System.out.println("Finished duties for the day.");
+                io.println("Finished duties for the day.");
                 return;
             }
             if (choice > 0 && choice <= assignedAnimals.size()) {
                 interactWithAnimal(assignedAnimals.get(choice - 1));
             } else {
-                System.out.println("Invalid animal number.");
+                io.println("Invalid animal number.");
             }
         }
     }
 
     private void interactWithAnimal(Animal animal) {
-        System.out.println("\nChoose action:");
-        System.out.println("1. Feed " + animal.getName());
-        System.out.println("2. Exercise " + animal.getName());
-        System.out.println("3. Examine " + animal.getName() + " and send to Vet");
-        System.out.print("Choose an option: ");
-        String choice = scanner.nextLine();
+        io.println("\nChoose action:");
+        io.println("1. Feed " + animal.getName());
+        io.println("2. Exercise " + animal.getName());
+        io.println("3. Examine " + animal.getName() + " and send to Vet");
+        io.print("Choose an option: ");
+        String choice = io.readLine();
 
         switch (choice) {
             case "1":
@@ -199,76 +672,91 @@ class HandlerModule {
                 handler.exercise(animal);
                 break;
             case "3":
-                System.out.println("Sending to Hospital...");
-                handler.examine(animal, zoo);
-                System.out.println(animal.getName() + " admitted at " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                io.println("Sending to Hospital...");
+                Condition condition = handler.examine(animal, zoo);
+                if (condition == null) {
+                    io.println(animal.getName() + " is already under treatment.");
+                    break;
+                }
+                io.println(animal.getName() + " admitted at " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+                io.println("Diagnosis: " + condition.getLabel() + ". Back in the enclosure in about " + condition.getTreatment().toMinutes() + " min.");
                 break;
             default:
-                System.out.println("Invalid action.");
+                io.println("Invalid action.");
         }
     }
 }
 
 class TicketingModule {
     private Zoo zoo;
-    private Scanner scanner;
+    private SessionIO io;
 
-    public TicketingModule(Zoo zoo, Scanner scanner) {
+    public TicketingModule(Zoo zoo, SessionIO io) {
         this.zoo = zoo;
-        this.scanner = scanner;
+        this.io = io;
     }
 
     public Visitor start() {
-        System.out.println("\n=== \uD83C\uDFAB WELCOME TO THE ZOO TICKET SHOP ===");
-        System.out.println("Here's what you can experience in the zoo:");
-        System.out.println("Visit Animal Enclosures (Elephant, Lion, Owl)");
-        System.out.println("Buy snacks and drinks from our Shops");
-        System.out.println("Listen to science lectures at the Hospital");
-        System.out.println("Buy fun gifts at our Gift Shop");
-
-        System.out.print("\nWould you like to buy a ticket? (yes/no): ");
-        if (!scanner.nextLine().equalsIgnoreCase("yes")) {
+        io.println("\n=== \uD83C\uDFAB WELCOME TO THE ZOO TICKET SHOP ===");
+        io.println("Here's what you can experience in the zoo:");
+        io.println("Visit Animal Enclosures (Elephant, Lion, Owl)");
+        io.println("Buy snacks and drinks from our Shops");
+        io.println("Listen to science lectures at the Hospital");
+        io.println("Buy fun gifts at our Gift Shop");
+
+        io.print("\nWould you like to buy a ticket? (yes/no): ");
+        if (!io.readLine().equalsIgnoreCase("yes")) {
             return null;
         }
 
-        System.out.print("Enter your name: ");
-        String name = scanner.nextLine();
-        System.out.print("Enter your age: ");
-        int age = Integer.parseInt(scanner.nextLine());
+        io.print("Enter your name: ");
+        String name = io.readLine();
+        io.print("Enter your age: ");
+        int age = Integer.parseInt(io.readLine());
 
         String ticketType = getTicketType(age);
         double price = getTicketPrice(ticketType);
 
-        System.out.println("\nYou qualify for a " + ticketType.toUpperCase() + " ticket.");
-        System.out.printf("Ticket Price: P%.2f\n", price);
-        System.out.print("Proceed with purchase? (yes/no): ");
-        if (!scanner.nextLine().equalsIgnoreCase("yes")) {
-            System.out.println("Purchase cancelled.");
+        io.println("\nYou qualify for a " + ticketType.toUpperCase() + " ticket.");
+        io.printf("Ticket Price: P%.2f\n", price);
+        io.print("Proceed with purchase? (yes/no): ");
+        if (!io.readLine().equalsIgnoreCase("yes")) {
+            io.println("Purchase cancelled.");
             return null;
         }
 
-        String ticketCode = "ZOO-" + (new Random().nextInt(9000) + 1000);
-        System.out.println("Ticket purchased!");
-        System.out.println("Your ticket code is: " + ticketCode);
-        System.out.println("[Ticket added to system]");
+        String ticketCode = zoo.issueTicket();
+        long slot = -1;
+        if (zoo.getAdmissions().hasTimedSlots() && (slot = zoo.getAdmissions().bookSlot(ticketCode)) < 0) {
+            // A ticket without a slot would be good at any time, so the unsold one is voided.
+            zoo.voidTicket(ticketCode);
+            io.println("Sorry, every entry slot is fully booked.");
+            return null;
+        }
+        io.println("Ticket purchased!");
+        io.println("Your ticket code is: " + ticketCode);
+        if (slot >= 0) io.println("Your entry slot starts at " + Main.slotTime(slot) + ".");
+        io.println("[Ticket added to system]");
 
         Visitor visitor = new Visitor(name, zoo.getTicketShop());
         visitor.setAge(age);
         visitor.setTicketCode(ticketCode);
         zoo.addPerson(visitor);
-        zoo.addValidTicket(ticketCode);
+        zoo.getDayBook().record(DayBook.Activity.TICKET, Arrays.asList(TICKET_TYPES).indexOf(ticketType), (int) Math.round(price * 100));
 
         return visitor;
     }
 
-    private String getTicketType(int age) {
+    static final String[] TICKET_TYPES = { "Child", "Student", "Adult", "Senior" };
+
+    static String getTicketType(int age) {
         if (age <= 5) return "Child";
         if (age <= 17) return "Student";
         if (age <= 59) return "Adult";
         return "Senior";
     }
 
-    private double getTicketPrice(String ticketType) {
+    static double getTicketPrice(String ticketType) {
         switch (ticketType) {
             case "Child": return 0.00;
             case "Student": return 75.00;
@@ -280,29 +768,26 @@ class TicketingModule {
 }
 
 class VisitorModule {
+    private static final byte[] MENU = RenderCache.menu("", "What would you like to do?",
+            "1. Visit Enclosure", "2. Visit Shop", "3. Visit Hospital", "4. Leave Zoo", "Choose an option: ");
     private Visitor visitor;
     private Zoo zoo;
-    private Scanner scanner;
+    private SessionIO io;
 
-    public VisitorModule(Visitor visitor, Zoo zoo, Scanner scanner) {
+    public VisitorModule(Visitor visitor, Zoo zoo, SessionIO io) {
         this.visitor = visitor;
         this.zoo = zoo;
-        this.scanner = scanner;
+        this.io = io;
     }
 
     public void start() {
         if (!zoo.isOpen()) {
-            System.out.println("Sorry, the zoo is currently closed.");
+            io.println("Sorry, the zoo is currently closed.");
             return;
         }
         while (true) {
-            System.out.println("\nWhat would you like to do?");
-            System.out.println("1. Visit Enclosure");
-            System.out.println("2. Visit Shop");
-            System.out.println("3. Visit Hospital");
-            System.out.println("4. Leave Zoo");
-            System.out.print("Choose an option: ");
-            String choice = scanner.nextLine();
+            io.write(MENU);
+            String choice = io.readLine();
 
             switch (choice) {
                 case "1":
@@ -315,60 +800,57 @@ class VisitorModule {
                     visitHospital();
                     break;
                 case "4":
-                    System.out.println("You have left the zoo. \uD83D\uDC4B");
+                    visitor.leaveZoo();
+                    io.println("You have left the zoo. \uD83D\uDC4B");
                     return;
                 default:
-                    System.out.println("Invalid option.");
+                    io.println("Invalid option.");
             }
         }
     }
 
     private void visitEnclosure() {
-        System.out.println("\n==Zoo Enclosure==");
-        System.out.println("Choose Enclosure:");
-        List<Enclosure> enclosures = zoo.getEnclosures();
-        for (int i = 0; i < enclosures.size(); i++) {
-            System.out.println((i + 1) + ". " + enclosures.get(i).getName());
-        }
-        System.out.print("Choose an option: ");
-        int choice = Integer.parseInt(scanner.nextLine()) - 1;
+        RenderCache.Rendered<Enclosure> menu = zoo.getRenderCache().enclosures();
+        io.write(menu.bytes);
+        List<Enclosure> enclosures = menu.items;
+        int choice = Integer.parseInt(io.readLine()) - 1;
 
         if (choice >= 0 && choice < enclosures.size()) {
             Enclosure selectedEnclosure = enclosures.get(choice);
-            visitor.goTo(selectedEnclosure);
+            if (!visitor.tryGoTo(selectedEnclosure)) {
+                io.println("The " + selectedEnclosure.getName() + " is full right now. Please try again later.");
+                return;
+            }
             List<Animal> animals = zoo.getAnimalsInEnclosure(selectedEnclosure);
             if (!animals.isEmpty()) {
                 Animal animalToSee = animals.get(0); // See the first animal
-                System.out.println("You see " + animalToSee.getName() + "!");
+                io.println("You see " + animalToSee.getName() + "!");
                 animalToSee.makeSound();
-                System.out.print("Would you like to feed " + animalToSee.getName() + "? (yes/no): ");
-                if (scanner.nextLine().equalsIgnoreCase("yes")) {
+                io.print("Would you like to feed " + animalToSee.getName() + "? (yes/no): ");
+                if (io.readLine().equalsIgnoreCase("yes")) {
                     animalToSee.eat();
                 }
             } else {
-                System.out.println("This enclosure is empty right now.");
+                io.println("This enclosure is empty right now.");
             }
         } else {
-            System.out.println("Invalid choice.");
+            io.println("Invalid choice.");
         }
     }
 
-    private void visitShop() {
-        System.out.println("\n=== \uD83D\uDED2 Zoo Shop ===");
+    void visitShop() {
+        io.println("\n=== \uD83D\uDED2 Zoo Shop ===");
         Shop shop = zoo.getFoodShop(); // Simplified to one main shop
         visitor.goTo(shop);
 
-        List<Product> products = shop.getProducts();
+        RenderCache.Rendered<Product> listing = zoo.getRenderCache().products(shop);
+        List<Product> products = listing.items;
         List<Product> cart = new ArrayList<>();
-        double total = 0;
+        long total = 0;
 
         while(true){
-            System.out.println("Available Products:");
-            for (int i = 0; i < products.size(); i++) {
-                System.out.printf("%d. %s - P%.2f\n", i + 1, products.get(i).getName(), products.get(i).getPrice());
-            }
-            System.out.print("Enter the numbers of the items you want to buy (e.g., 1 3, or 0 to finish): ");
-            String[] choices = scanner.nextLine().split(" ");
+            io.write(listing.bytes);
+            String[] choices = io.readLine().split(" ");
 
             if(choices[0].equals("0")) break;
 
@@ -376,83 +858,357 @@ class VisitorModule {
                 int itemNum = Integer.parseInt(c) - 1;
                 if(itemNum >= 0 && itemNum < products.size()){
                     Product p = products.get(itemNum);
+                    if (p.getStock() == 0) {
+                        io.println("Sorry, " + p.getName() + " is sold out.");
+                        continue;
+                    }
                     cart.add(p);
-                    total += p.getPrice();
-                    System.out.println("Added: " + p.getName());
+                    total += p.getPriceCents();
+                    io.println("Added: " + p.getName());
                 }
             }
         }
 
         if(cart.isEmpty()) return;
 
-        System.out.println("\nSelected:");
+        io.println("\nSelected:");
         for(Product p : cart){
-            System.out.printf("- %s (P%.2f)\n", p.getName(), p.getPrice());
+            io.printf("- %s (P%.2f)\n", p.getName(), p.getPrice());
         }
-        System.out.printf("Total: P%.2f\n", total);
-        System.out.print("Proceed to checkout? (yes/no): ");
-        if(scanner.nextLine().equalsIgnoreCase("yes")){
-            System.out.println("Payment successful!");
-            System.out.println("Receipt:");
+        io.printf("Total: P%.2f\n", total / 100.0);
+        io.print("Proceed to checkout? (yes/no): ");
+        if(io.readLine().equalsIgnoreCase("yes")){
+            Receipt receipt = shop.checkout(visitor, cart);
+            if (!receipt.isPaid()) {
+                io.println("Sorry, " + receipt.getSoldOut().getName() + " just sold out. Purchase cancelled.");
+                return;
+            }
+            io.println("Payment successful!");
+            io.println("Receipt:");
             for(Product p : cart){
-                System.out.printf("- %s: P%.2f\n", p.getName(), p.getPrice());
+                io.printf("- %s: P%.2f\n", p.getName(), p.getPrice());
             }
-            System.out.printf("Total Paid: P%.2f\n", total);
+            io.printf("Total Paid: P%.2f\n", receipt.getTotalCents() / 100.0);
         } else {
-            System.out.println("Purchase cancelled.");
+            io.println("Purchase cancelled.");
         }
     }
 
+    private static String treatmentStatus(Hospital hospital, Animal animal) {
+        Condition condition = hospital.getCondition(animal);
+        long due = hospital.getRecoveryDue(animal);
+        if (condition == null || due < 0) return "";
+        long minutes = Math.max(1, (due - hospital.now() + 59_999) / 60_000);
+        return " (" + condition.getLabel() + ", about " + minutes + " min to go)";
+    }
+
     private void visitHospital() {
         Hospital hospital = zoo.getHospital();
         visitor.goTo(hospital);
         Veterinarian vet = zoo.getVeterinarian();
 
         while (true) {
-            System.out.println("\n=== \uD83C\uDFE5 Zoo Visitor Hospital Monitor ===");
-            System.out.println("1. View Sick Animals");
-            System.out.println("2. View Healed Animals");
-            System.out.println("3. Attend Science Lecture");
-            System.out.println("4. Exit");
-            System.out.print("Choose an option: ");
-            String choice = scanner.nextLine();
+            io.println("\n=== \uD83C\uDFE5 Zoo Visitor Hospital Monitor ===");
+            io.println("1. View Sick Animals");
+            io.println("2. View Healed Animals");
+            io.println("3. Attend Science Lecture");
+            io.println("4. Exit");
+            io.print("Choose an option: ");
+            String choice = io.readLine();
 
             switch (choice) {
                 case "1":
-                    System.out.println("\n* Sick Animals Currently in Hospital:");
+                    io.println("\n* Sick Animals Currently in Hospital:");
                     List<Animal> sick = hospital.getSickAnimals();
-                    if(sick.isEmpty()) System.out.println("- None");
-                    else sick.forEach(a -> System.out.println("- " + a.getName()));
+                    if(sick.isEmpty()) io.println("- None");
+                    else sick.forEach(a -> io.println("- " + a.getName() + treatmentStatus(hospital, a)));
                     break;
                 case "2":
-                    System.out.println("\n\u2695 Healed Animals with Timestamps:");
-                    List<String> healedLog = hospital.getHealedAnimalLog();
-                    if(healedLog.isEmpty()) System.out.println("- None");
-                    else healedLog.forEach(System.out::println);
+                    io.println("\n\u2695 Healed Animals with Timestamps:");
+                    List<String> healedLog = hospital.getHealedAnimalHistory(zoo);
+                    if(healedLog.isEmpty()) io.println("- None");
+                    else healedLog.forEach(io::println);
                     break;
                 case "3":
                     if(vet != null) vet.lecture();
-                    else System.out.println("There is no veterinarian available for a lecture today.");
+                    else io.println("There is no veterinarian available for a lecture today.");
                     break;
                 case "4":
-                    System.out.println("Exiting Zoo Vet Hospital. Goodbye!");
+                    io.println("Exiting Zoo Vet Hospital. Goodbye!");
                     return;
                 default:
-                    System.out.println("Invalid option.");
+                    io.println("Invalid option.");
+            }
+        }
+    }
+}
+
+
+// Everyone currently in the zoo, split by role so staff lookups never wade through the day's
+// visitors. Each role has a hash index on the normalized name for exact lookups and a sorted
+// index for prefix search; both are updated together under the name's map entry. Departed
+// visitors are removed, so memory tracks who is here, not everyone who ever came.
+class PersonDirectory {
+    enum Role {
+        MANAGER, VETERINARIAN, HANDLER, VENDOR, VISITOR;
+
+        static Role of(Person person) {
+            if (person instanceof Visitor) return VISITOR;
+            if (person instanceof Handler) return HANDLER;
+            if (person instanceof Vendor) return VENDOR;
+            if (person instanceof Veterinarian) return VETERINARIAN;
+            return MANAGER;
+        }
+    }
+
+    private static final Person[] NONE = new Person[0];
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private final Partition[] partitions = new Partition[Role.values().length];
+    private final Collection<Person> everyone = new AbstractCollection<Person>() {
+        @Override public Iterator<Person> iterator() {
+            return Arrays.stream(partitions).flatMap(p -> p.members.values().stream()).iterator();
+        }
+        @Override public int size() { return PersonDirectory.this.size(); }
+    };
+
+    PersonDirectory() {
+        for (int i = 0; i < partitions.length; i++) partitions[i] = new Partition();
+    }
+
+    void add(Person person) {
+        Partition p = partitions[Role.of(person).ordinal()];
+        if (p.members.putIfAbsent(person.getId(), person) != null) return;
+        String key = normalize(person.getName());
+        p.byName.compute(key, (k, people) -> {
+            Person[] grown = people == null ? new Person[1] : Arrays.copyOf(people, people.length + 1);
+            grown[grown.length - 1] = person;
+            p.sorted.put(k, grown);
+            return grown;
+        });
+    }
+    boolean remove(Person person) {
+        Partition p = partitions[Role.of(person).ordinal()];
+        if (p.members.remove(person.getId()) == null) return false;
+        p.byName.computeIfPresent(normalize(person.getName()), (k, people) -> {
+            Person[] rest = Arrays.stream(people).filter(x -> x != person).toArray(Person[]::new);
+            if (rest.length == 0) {
+                p.sorted.remove(k);
+                return null;
+            }
+            p.sorted.put(k, rest);
+            return rest;
+        });
+        return true;
+    }
+
+    // Exact match on the normalized name.
+    public List<Person> find(Role role, String name) {
+        Person[] people = name == null ? null : partitions[role.ordinal()].byName.get(normalize(name));
+        return people == null ? List.of() : List.of(people);
+    }
+    public Person findFirst(Role role, String name) {
+        Person[] people = name == null ? NONE : partitions[role.ordinal()].byName.getOrDefault(normalize(name), NONE);
+        return people.length == 0 ? null : people[0];
+    }
+    // People whose normalized name starts with the prefix, in name order.
+    public List<Person> search(Role role, String prefix, int limit) {
+        String from = normalize(prefix);
+        List<Person> matches = new ArrayList<>();
+        for (Map.Entry<String, Person[]> e : partitions[role.ordinal()].sorted.tailMap(from).entrySet()) {
+            if (matches.size() >= limit || !e.getKey().startsWith(from)) break;
+            for (Person person : e.getValue()) {
+                if (matches.size() < limit) matches.add(person);
             }
         }
+        return matches;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Partition p : partitions) size += p.members.size();
+        return size;
+    }
+    public int size(Role role) { return partitions[role.ordinal()].members.size(); }
+    public Collection<Person> members(Role role) { return Collections.unmodifiableCollection(partitions[role.ordinal()].members.values()); }
+    // Read-only view of everyone, role by role and oldest first within a role.
+    public Collection<Person> all() { return everyone; }
+
+    // Case, accents, compatibility forms and runs of whitespace do not matter.
+    static String normalize(String name) {
+        if (name == null) return "";
+        String s = name.trim();
+        boolean plain = true;
+        for (int i = 0; i < s.length() && plain; i++) {
+            char c = s.charAt(i);
+            plain = c < 128 && c != '\t' && (c != ' ' || s.charAt(i - 1) != ' ');
+        }
+        if (!plain) s = SPACES.matcher(MARKS.matcher(Normalizer.normalize(s, Normalizer.Form.NFKD)).replaceAll("")).replaceAll(" ");
+        return s.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Partition {
+        // Keyed by person id, which follows creation order.
+        final ConcurrentSkipListMap<Integer, Person> members = new ConcurrentSkipListMap<>();
+        final Map<String, Person[]> byName = new ConcurrentHashMap<>();
+        final ConcurrentSkipListMap<String, Person[]> sorted = new ConcurrentSkipListMap<>();
     }
 }
 
+// Runs many parks in one JVM. Each park is its own Zoo with its own single-threaded executor
+// and nothing shared between them: work for a park runs on that park's thread, and its
+// narration goes to that park's sink. Cross-park reads fan out to every park at once and
+// are merged here. Ticket codes carry the issuing park's id, so a code sold at one park is
+// refused at every other.
+class ZooFederation implements AutoCloseable {
+    private final List<Park> parks = new CopyOnWriteArrayList<>();
+
+    public synchronized Park addPark(String name, EventSink events) {
+        int id = parks.size();
+        if (id >= TicketCodes.MAX_PARKS) throw new IllegalStateException("A federation holds at most " + TicketCodes.MAX_PARKS + " parks");
+        Park park = new Park(id, name, new Zoo(id), events);
+        parks.add(park);
+        return park;
+    }
+
+    public List<Park> getParks() { return Collections.unmodifiableList(parks); }
+    public Park getPark(int id) { return parks.get(id); }
+    // The park that sold this ticket, or null if the code is malformed or from elsewhere.
+    public Park parkOf(String ticketCode) {
+        long key = TicketCodes.decode(ticketCode);
+        int id = key < 0 ? -1 : TicketCodes.parkOf(key);
+        return id >= 0 && id < parks.size() ? parks.get(id) : null;
+    }
+
+    // Runs the read on every park's own thread and merges the answers in park order.
+    public <T, R> R query(Function<Zoo, T> read, R identity, BiFunction<R, T, R> merge) {
+        List<CompletableFuture<T>> answers = new ArrayList<>(parks.size());
+        for (Park park : parks) answers.add(park.submit(read));
+        R result = identity;
+        for (CompletableFuture<T> answer : answers) result = merge.apply(result, answer.join());
+        return result;
+    }
+    public <T> Map<String, T> queryEach(Function<Zoo, T> read) {
+        Map<String, T> byPark = new LinkedHashMap<>();
+        List<CompletableFuture<T>> answers = new ArrayList<>(parks.size());
+        for (Park park : parks) answers.add(park.submit(read));
+        for (int i = 0; i < parks.size(); i++) byPark.put(parks.get(i).getName(), answers.get(i).join());
+        return byPark;
+    }
+
+    public long getTotalVisitors() { return query(z -> (long) z.getDirectory().size(PersonDirectory.Role.VISITOR), 0L, Long::sum); }
+    public long getTotalSickAnimals() { return query(z -> z.getHospital() == null ? 0L : z.getHospital().getWardSize(), 0L, Long::sum); }
+    public Map<String, Boolean> getOpenStatus() { return queryEach(Zoo::isOpen); }
+
+    // An interrupted close stops waiting for the parks and keeps the thread's interrupt flag set.
+    @Override
+    public void close() {
+        for (Park park : parks) park.executor.shutdown();
+        try {
+            for (Park park : parks) park.executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static final class Park {
+        private final int id;
+        private final String name;
+        private final Zoo zoo;
+        private final ScheduledExecutorService executor;
+
+        private Park(int id, String name, Zoo zoo, EventSink events) {
+            this.id = id;
+            this.name = name;
+            this.zoo = zoo;
+            this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(() -> {
+                    ZooEvents.bind(events);
+                    r.run();
+                }, "park-" + id);
+                t.setDaemon(true);
+                return t;
+            });
+            // The park's recovery clock: treatments finish on the park's own thread.
+            executor.scheduleAtFixedRate(() -> {
+                try {
+                    zoo.tickHospitals();
+                } catch (RuntimeException e) {
+                    System.err.println(name + " recovery tick failed: " + e.getMessage());
+                }
+            }, Hospital.TICK_MILLIS, Hospital.TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        public int getId() { return id; }
+        public String getName() { return name; }
+        // Only touch the zoo from tasks submitted here, so the park stays on its own thread.
+        public <T> CompletableFuture<T> submit(Function<Zoo, T> task) { return CompletableFuture.supplyAsync(() -> task.apply(zoo), executor); }
+    }
+
+    // Usage: java -cp target/classes org.example.ZooFederation [parks] [visitorsPerHour] [hours]
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 10_000;
+        long hours = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+        long started = System.nanoTime();
+        try (ZooFederation federation = new ZooFederation()) {
+            for (int i = 0; i < count; i++) federation.addPark("Park " + (i + 1), EventSink.NONE);
+            List<CompletableFuture<SimulationReport>> days = new ArrayList<>();
+            for (Park park : federation.getParks()) {
+                days.add(park.submit(zoo -> {
+                    zoo.initializeDefaultState();
+                    zoo.setOpen(true);
+                    return new SimulationEngine(zoo, 42L + park.getId()).visitorsPerHour(rate).run(hours * 3_600_000L);
+                }));
+            }
+            long events = 0;
+            for (CompletableFuture<SimulationReport> day : days) events += day.join().getEventCount();
+            long open = federation.getOpenStatus().values().stream().filter(b -> b).count();
+            System.out.printf("%d parks simulated %,d events in %.2f s%n", count, events, (System.nanoTime() - started) / 1e9);
+            System.out.printf("Open: %d/%d, visitors inside: %,d, animals in hospital: %,d%n",
+                    open, count, federation.getTotalVisitors(), federation.getTotalSickAnimals());
+        }
+    }
+}
 
 class Zoo {
-    private List<Animal> animals = new ArrayList<>();
-    private List<Person> people = new ArrayList<>();
-    private List<Building> buildings = new ArrayList<>();
-    private List<String> validTicketCodes = new ArrayList<>();
-    private Manager manager;
-    private Veterinarian veterinarian;
-    private boolean isOpen = false;
+    // Shared by concurrent sessions: every structure is a concurrent collection or copy-on-write
+    // list, so readers never block and writers only contend on the entry they touch.
+    private Queue<Animal> animals = new ConcurrentLinkedQueue<>();
+    private final PersonDirectory people = new PersonDirectory();
+    private List<Building> buildings = new CopyOnWriteArrayList<>();
+    private List<Enclosure> enclosures = new CopyOnWriteArrayList<>();
+    // Secondary indexes, kept current by addAnimal/addPerson/addBuilding and Animal.setLocation.
+    private Map<Class<?>, List<Building>> buildingsByType = new ConcurrentHashMap<>();
+    private Map<Building, Occupants> animalsByLocation = new ConcurrentHashMap<>();
+    private final SnapshotView<Enclosure> enclosuresView = new SnapshotView<>(() -> enclosures);
+    private final RenderCache renderCache = new RenderCache(this);
+    private TicketRegistry ticketRegistry = new TicketRegistry();
+    private volatile TicketCodeGenerator ticketCodeGenerator;
+    private volatile Manager manager;
+    private volatile Veterinarian veterinarian;
+    private volatile boolean isOpen = false;
+    // Stable positions used by snapshots and the write-ahead log.
+    private final AtomicInteger nextAnimalIndex = new AtomicInteger();
+    private final AtomicInteger nextPersonIndex = new AtomicInteger();
+    private final AtomicInteger nextBuildingIndex = new AtomicInteger();
+    private volatile ZooJournal journal;
+    private final ZooMetrics metrics = new ZooMetrics(this);
+    private final OccupancyTracker occupancy = new OccupancyTracker();
+    private final AdmissionController admissions = new AdmissionController(this);
+    private volatile CareScheduler care;
+    private volatile DayBook dayBook = new DayBook(this, System::currentTimeMillis);
+    private volatile DayBook previousDay;
+    private volatile boolean restoring;
+    private final int parkId;
+
+    public Zoo() { this(-1); }
+    // A park in a federation: its ticket codes carry parkId and are refused anywhere else.
+    public Zoo(int parkId) {
+        this.parkId = parkId;
+        setTicketCodeGenerator(parkId >= 0 ? new SequenceTicketCodeGenerator(new SecureRandom().nextLong(), parkId) : new SequenceTicketCodeGenerator());
+    }
 
     public void initializeDefaultState() {
         // Buildings
@@ -486,217 +1242,4899 @@ class Zoo {
         this.addPerson(new Vendor("Tommy", foodShop));
     }
 
-    public void addAnimal(Animal animal) { this.animals.add(animal); }
-    public void addPerson(Person person) { this.people.add(person); }
-    public void addBuilding(Building building) { this.buildings.add(building); }
-    public void addValidTicket(String code) { this.validTicketCodes.add(code); }
-    public boolean validateTicket(String code) { return this.validTicketCodes.contains(code); }
+    public void addAnimal(Animal animal) {
+        register(animal);
+        if (animal.getLocation() != null) occupants(animal.getLocation()).add(animal);
+        CareScheduler c = care;
+        if (c != null) c.track(animal);
+    }
+    // Bulk variant for loaders and restores: one version bump per enclosure instead of one per animal.
+    public void addAnimals(Collection<? extends Animal> batch) {
+        Map<Building, List<Animal>> byLocation = new HashMap<>();
+        for (Animal animal : batch) {
+            register(animal);
+            if (animal.getLocation() != null) byLocation.computeIfAbsent(animal.getLocation(), k -> new ArrayList<>()).add(animal);
+        }
+        byLocation.forEach((building, arrivals) -> occupants(building).addAll(arrivals));
+        CareScheduler c = care;
+        if (c != null) batch.forEach(c::track);
+    }
+    public void addPerson(Person person) {
+        person.zooIndex = assignIndex(nextPersonIndex, person.zooIndex);
+        person.zoo = this;
+        this.people.add(person);
+        if (person instanceof Visitor && person.getLocation() != null) occupancy.arrived(person, person.getLocation());
+        ZooJournal j = journal;
+        if (j != null) j.personAdded(person);
+    }
+    // Visitors are removed when they leave, so the directory only holds who is here.
+    public void removePerson(Person person) {
+        if (!people.remove(person)) return;
+        ZooJournal j = journal;
+        if (j != null) j.personRemoved(person);
+    }
+    public void addBuilding(Building building) {
+        building.zooIndex = assignIndex(nextBuildingIndex, building.zooIndex);
+        building.zoo = this;
+        this.buildings.add(building);
+        if (building instanceof Enclosure && enclosures.add((Enclosure) building)) enclosuresView.changed();
+        for (Class<?> type = building.getClass(); type != Object.class; type = type.getSuperclass()) {
+            buildingsByType.computeIfAbsent(type, k -> new CopyOnWriteArrayList<>()).add(building);
+        }
+        ZooJournal j = journal;
+        if (j != null) j.buildingAdded(building);
+    }
+    // False when the code is already in today's registry or belongs to another park; nothing is sold.
+    public boolean addValidTicket(String code) {
+        long started = System.nanoTime();
+        long key = TicketCodes.decode(code);
+        if (!issuedHere(key) || !this.ticketRegistry.issueKey(key)) return false;
+        ZooJournal j = journal;
+        if (j != null) j.ticketIssued(key);
+        metrics.ticketSold(System.nanoTime() - started);
+        return true;
+    }
+    // Draws and registers a code no one else holds today. A generator that was not restored with
+    // the zoo can repeat a code, so a duplicate is skipped rather than sold twice.
+    public String issueTicket() {
+        for (int attempt = 0; attempt < 16; attempt++) {
+            String code = ticketCodeGenerator.next();
+            if (addValidTicket(code)) return code;
+        }
+        throw new IllegalStateException("Ticket code generator keeps repeating codes that are already issued");
+    }
+    // Takes back an issued ticket that was never handed over; it is logged like a redemption.
+    public void voidTicket(String code) {
+        long key = TicketCodes.decode(code);
+        ZooJournal j = journal;
+        if (this.ticketRegistry.redeemKey(key) && j != null) j.ticketRedeemed(key);
+    }
+    public boolean validateTicket(String code) {
+        long started = System.nanoTime();
+        long key = TicketCodes.decode(code);
+        boolean valid = issuedHere(key) && this.ticketRegistry.isValid(code) && admissions.inSlot(key);
+        metrics.ticketValidated(valid, System.nanoTime() - started);
+        return valid;
+    }
+    public boolean redeemTicket(String code) {
+        long started = System.nanoTime();
+        long key = TicketCodes.decode(code);
+        boolean redeemed = issuedHere(key) && admissions.inSlot(key) && this.ticketRegistry.redeemKey(key);
+        ZooJournal j = journal;
+        if (redeemed) admissions.ticketRedeemed(key);
+        if (redeemed && j != null) j.ticketRedeemed(key);
+        metrics.ticketValidated(redeemed, System.nanoTime() - started);
+        return redeemed;
+    }
+    private boolean issuedHere(long key) { return parkId < 0 || key >= 0 && TicketCodes.parkOf(key) == parkId; }
+    public int getParkId() { return parkId; }
+    public TicketRegistry getTicketRegistry() { return ticketRegistry; }
+    public TicketCodeGenerator getTicketCodeGenerator() { return ticketCodeGenerator; }
+    // Sequence generators log each block they reserve, so a restore resumes past every code handed out.
+    public void setTicketCodeGenerator(TicketCodeGenerator generator) {
+        if (generator instanceof SequenceTicketCodeGenerator) ((SequenceTicketCodeGenerator) generator).onReserve(this::ticketBlockReserved);
+        this.ticketCodeGenerator = generator;
+    }
+    private void ticketBlockReserved(long reserved) {
+        ZooJournal j = journal;
+        if (j != null) j.ticketBlockReserved(reserved);
+    }
 
     public List<Building> getBuildings() { return buildings; }
-    public List<Enclosure> getEnclosures() {
-        return buildings.stream()
-                .filter(b -> b instanceof Enclosure)
-                .map(b -> (Enclosure) b)
-                .collect(Collectors.toList());
+    public Collection<Person> getPeople() { return people.all(); }
+    public PersonDirectory getDirectory() { return people; }
+    public Collection<Animal> getAnimals() { return animals; }
+    public List<Enclosure> getEnclosures() { return enclosuresView.get(); }
+    public SnapshotView<Enclosure> getEnclosuresView() { return enclosuresView; }
+    public RenderCache getRenderCache() { return renderCache; }
+    public Hospital getHospital() { return (Hospital) firstOfType(Hospital.class); }
+    // Discharges whatever has finished its treatment in every hospital; returns how many left.
+    public int tickHospitals() {
+        int recovered = 0;
+        List<Building> hospitals = buildingsByType.get(Hospital.class);
+        if (hospitals != null) for (Building b : hospitals) recovered += ((Hospital) b).tick();
+        return recovered;
+    }
+    public Shop getTicketShop() { return (Shop) firstOfType(TicketShop.class); }
+    public Shop getFoodShop() { return (Shop) firstOfType(FoodShop.class); }
+    public List<Animal> getAnimalsInEnclosure(Enclosure enclosure) { return getOccupantsView(enclosure).get(); }
+    public SnapshotView<Animal> getOccupantsView(Building building) { return occupants(building).view; }
+    public Handler findHandlerByName(String name) { return (Handler) people.findFirst(PersonDirectory.Role.HANDLER, name); }
+
+    void animalMoved(Animal animal, Building from) {
+        Occupants previous = from == null ? null : animalsByLocation.get(from);
+        if (previous != null) previous.remove(animal);
+        if (animal.getLocation() != null) occupants(animal.getLocation()).add(animal);
+        CareScheduler c = care;
+        if (c != null) c.moved(animal);
+        ZooJournal j = journal;
+        if (j != null) j.animalMoved(animal);
+    }
+
+    public ZooMetrics getMetrics() { return metrics; }
+    public OccupancyTracker getOccupancy() { return occupancy; }
+    public AdmissionController getAdmissions() { return admissions; }
+    // Rolls over on its own at local midnight, when the ticket registry expires the day's tickets.
+    public DayBook getDayBook() {
+        DayBook book = dayBook;
+        if (!book.isOver()) return book;
+        synchronized (this) {
+            if (dayBook.isOver()) startNewDay();
+            return dayBook;
+        }
+    }
+    // The book closed by the last rollover or startNewDay, so its report can still be run; null
+    // on the first day.
+    public DayBook getPreviousDay() { return previousDay; }
+    // Closes today's book and starts a fresh one; returns the closed book.
+    public synchronized DayBook startNewDay() {
+        DayBook closed = dayBook;
+        previousDay = closed;
+        dayBook = closed.next();
+        return closed;
+    }
+    // For restores: the book that opened at startMillis. A newer one becomes today's book, and
+    // a fresh zoo's empty book simply gives way; an older unknown one is dropped (null).
+    synchronized DayBook dayBookFor(long startMillis) {
+        DayBook today = dayBook, previous = previousDay;
+        if (today.getStartMillis() == startMillis) return today;
+        if (previous != null && previous.getStartMillis() == startMillis) return previous;
+        if (today.size() > 0 && startMillis < today.getStartMillis()) return null;
+        if (today.size() > 0) previousDay = today;
+        return dayBook = today.startingAt(startMillis);
     }
-    public Hospital getHospital() {
-        return (Hospital) buildings.stream().filter(b -> b instanceof Hospital).findFirst().orElse(null);
+    // Created on first use; from then on every animal added or moved is scheduled.
+    public CareScheduler getCareScheduler() {
+        CareScheduler c = care;
+        if (c != null) return c;
+        synchronized (this) {
+            if (care == null) {
+                care = c = new CareScheduler(this);
+                for (Animal animal : animals) c.track(animal);
+            }
+            return care;
+        }
     }
-    public Shop getTicketShop() {
-        return (Shop) buildings.stream().filter(b -> b instanceof TicketShop).findFirst().orElse(null);
+    ZooJournal journal() { return journal; }
+    void setJournal(ZooJournal journal) { this.journal = journal; }
+    // While a restore replays admissions and discharges, the day book gets its rows back from
+    // the snapshot and log instead of recording them again.
+    boolean isRestoring() { return restoring; }
+    void setRestoring(boolean restoring) { this.restoring = restoring; }
+
+    private void register(Animal animal) {
+        animal.zooIndex = assignIndex(nextAnimalIndex, animal.zooIndex);
+        animal.zoo = this;
+        this.animals.add(animal);
+        ZooJournal j = journal;
+        if (j != null) j.animalAdded(animal);
     }
-    public Shop getFoodShop() {
-        return (Shop) buildings.stream().filter(b -> b instanceof FoodShop).findFirst().orElse(null);
+    private static int assignIndex(AtomicInteger counter, int requested) {
+        if (requested < 0) return counter.getAndIncrement();
+        counter.accumulateAndGet(requested + 1, Math::max);
+        return requested;
     }
-    public List<Animal> getAnimalsInEnclosure(Enclosure enclosure) {
-        return animals.stream()
-                .filter(a -> a.getLocation().equals(enclosure))
-                .collect(Collectors.toList());
+
+    private Building firstOfType(Class<? extends Building> type) {
+        List<Building> matches = buildingsByType.get(type);
+        return matches == null ? null : matches.get(0);
+    }
+    private Occupants occupants(Building building) {
+        return animalsByLocation.computeIfAbsent(building, k -> new Occupants());
     }
-    public Handler findHandlerByName(String name) {
-        return people.stream()
-                .filter(p -> p instanceof Handler && p.getName().equalsIgnoreCase(name))
-                .map(p -> (Handler) p)
-                .findFirst().orElse(null);
+
+    // Keyed by zoo index so a move is O(log n) and listings keep the order the animals were added in.
+    private static class Occupants {
+        final Map<Integer, Animal> animals = new ConcurrentSkipListMap<>();
+        final SnapshotView<Animal> view = new SnapshotView<>(animals::values);
+        void add(Animal animal) { if (animals.put(animal.zooIndex, animal) != animal) view.changed(); }
+        void remove(Animal animal) { if (animals.remove(animal.zooIndex, animal)) view.changed(); }
+        void addAll(List<Animal> arrivals) {
+            for (Animal animal : arrivals) animals.put(animal.zooIndex, animal);
+            view.changed();
+        }
     }
 
-    public void setManager(Manager m) { this.manager = m; addPerson(m); }
-    public void setVeterinarian(Veterinarian v) { this.veterinarian = v; addPerson(v); }
+    public void setManager(Manager m) {
+        this.manager = m;
+        addPerson(m);
+        ZooJournal j = journal;
+        if (j != null) j.staffAssigned(m);
+    }
+    public void setVeterinarian(Veterinarian v) {
+        this.veterinarian = v;
+        addPerson(v);
+        ZooJournal j = journal;
+        if (j != null) j.staffAssigned(v);
+    }
+    void restoreManager(Manager m) { this.manager = m; }
+    void restoreVeterinarian(Veterinarian v) { this.veterinarian = v; }
+    public Manager getManager() { return manager; }
     public Veterinarian getVeterinarian() { return veterinarian; }
     public boolean isOpen() { return isOpen; }
-    public void setOpen(boolean open) { isOpen = open; }
+    public void setOpen(boolean open) {
+        isOpen = open;
+        ZooJournal j = journal;
+        if (j != null) j.openChanged(open);
+    }
 }
 
-class Product {
-    private String name;
-    private double price;
-    public Product(String name, double price) { this.name = name; this.price = price; }
-    public String getName() { return name; }
-    public double getPrice() { return price; }
-}
+// Crowd levels per building, fed by every visitor move. Each building keeps a live head count,
+// a ring of one-minute arrival buckets (sliding 5/15/60-minute windows) and a ring of
+// five-minute HyperLogLog sketches for unique visitors, so memory is fixed per building no
+// matter how many people pass through. Recording a move allocates nothing and takes no lock.
+class OccupancyTracker {
+    static final List<Duration> WINDOWS = List.of(Duration.ofMinutes(5), Duration.ofMinutes(15), Duration.ofMinutes(60));
+    private static final int MINUTES = 60;
+    private static final int SKETCH_MINUTES = 5;
+    private static final int SKETCHES = MINUTES / SKETCH_MINUTES;
+    private final Map<Building, BuildingOccupancy> buildings = new ConcurrentHashMap<>();
+    private final HyperLogLog visitors = new HyperLogLog(14);
+    private volatile LongSupplier clock = System::currentTimeMillis;
 
-abstract class Building {
-    protected String name;
-    public String getName() { return name; }
-}
-class Enclosure extends Building {
-    public Enclosure(String name) { this.name = name; }
-}
-class Hospital extends Building {
-    private List<Animal> sickAnimals = new ArrayList<>();
-    private List<String> healedAnimalLog = new ArrayList<>();
-    public Hospital() { this.name = "Animal Hospital"; }
-    public void admitAnimal(Animal animal) { sickAnimals.add(animal); }
-    public void dischargeAnimal(Animal animal) { sickAnimals.remove(animal); }
-    public List<Animal> getSickAnimals() { return sickAnimals; }
-    public void logHealedAnimal(String log) { healedAnimalLog.add(log); }
-    public List<String> getHealedAnimalLog() { return healedAnimalLog; }
-}
-abstract class Shop extends Building {
-    protected List<Product> products = new ArrayList<>();
-    public List<Product> getProducts() { return products; }
-}
-class TicketShop extends Shop {
-    public TicketShop() { this.name = "Ticket Shop"; }
-}
-class FoodShop extends Shop {
-    public FoodShop() {
-        this.name = "Food Shop";
-        products.add(new Product("Soft Drink", 30));
-        products.add(new Product("Popcorn", 50));
-        products.add(new Product("Plush Toy", 120));
-        products.add(new Product("Keychain", 45));
+    void moved(Person person, Building from, Building to) {
+        if (from == to) return;
+        left(from);
+        if (to != null) arrived(person, to);
+    }
+    void arrived(Person person, Building to) {
+        long minute = clock.getAsLong() / 60_000;
+        long hash = HyperLogLog.hash(person.getId());
+        BuildingOccupancy o = occupancy(to);
+        o.present.increment();
+        o.bucket(minute).arrivals.increment();
+        o.sketch(minute).add(hash);
+        visitors.add(hash);
+    }
+    void left(Building from) {
+        if (from == null) return;
+        BuildingOccupancy o = occupancy(from);
+        o.bucket(clock.getAsLong() / 60_000);
+        o.present.decrement();
     }
-}
 
-abstract class Person {
-    protected String name;
-    protected Building location;
-    public Person(String name, Building location) { this.name = name; this.location = location; }
-    public String getName() { return name; }
-    public Building getLocation() { return location; }
-    public void goTo(Building destination) {
-        this.location = destination;
-        System.out.println(this.name + " is moving to " + destination.getName() + ".");
+    public void setClock(LongSupplier clock) { this.clock = clock; }
+
+    public long getCurrent(Building building) {
+        BuildingOccupancy o = buildings.get(building);
+        return o == null ? 0 : o.present.sum();
     }
-}
-class Manager extends Person {
-    public Manager(String name, Building location) { super(name, location); }
-    public void openZoo() { System.out.println("Manager " + name + " has opened the zoo! Welcome!"); }
-    public void closeZoo() { System.out.println("Manager " + name + " has closed the zoo! Please come again."); }
-}
-class Handler extends Person {
-    public Handler(String name, Building location) { super(name, location); }
-    public void feed(Animal animal) { System.out.println(name + " is feeding " + animal.getName() + "."); animal.eat(); }
-    public void exercise(Animal animal) { System.out.println(name + " is exercising " + animal.getName() + "."); animal.roam(); }
-    public void examine(Animal animal, Zoo zoo) {
-        animal.setHealthy(false);
-        Hospital hospital = zoo.getHospital();
-        if(hospital != null){
-            animal.setLocation(hospital);
-            hospital.admitAnimal(animal);
+    // Arrivals in the last window, counted in whole minutes including the current one.
+    public long getArrivals(Building building, Duration window) {
+        BuildingOccupancy o = buildings.get(building);
+        if (o == null) return 0;
+        long now = clock.getAsLong() / 60_000;
+        long total = 0;
+        for (long m = now - minutes(window) + 1; m <= now; m++) {
+            MinuteBucket b = o.minutes[Math.floorMod(m, MINUTES)];
+            if (b.minute == m) total += b.arrivals.sum();
         }
+        return total;
+    }
+    // Head count sampled at the first move in or out of each minute, plus the current count.
+    public long getPeak(Building building, Duration window) {
+        BuildingOccupancy o = buildings.get(building);
+        if (o == null) return 0;
+        long now = clock.getAsLong() / 60_000;
+        long peak = o.present.sum();
+        for (long m = now - minutes(window) + 1; m <= now; m++) {
+            MinuteBucket b = o.minutes[Math.floorMod(m, MINUTES)];
+            if (b.minute == m) peak = Math.max(peak, b.headCount);
+        }
+        return peak;
+    }
+    // Approximate distinct visitors, at five-minute granularity (about 2% error).
+    public long getUniqueVisitors(Building building, Duration window) {
+        BuildingOccupancy o = buildings.get(building);
+        if (o == null) return 0;
+        long now = clock.getAsLong() / 60_000 / SKETCH_MINUTES;
+        long sketches = Math.max(1, (minutes(window) + SKETCH_MINUTES - 1) / SKETCH_MINUTES);
+        byte[] merged = new byte[o.sketches[0].size()];
+        for (long s = now - sketches + 1; s <= now; s++) {
+            int slot = Math.floorMod(s, SKETCHES);
+            if (o.sketchStamps.get(slot) == s) o.sketches[slot].mergeInto(merged);
+        }
+        return HyperLogLog.estimate(merged);
+    }
+    // Distinct visitors seen anywhere since the tracker started.
+    public long getUniqueVisitors() { return visitors.estimate(); }
+    public Set<Building> getBuildings() { return Collections.unmodifiableSet(buildings.keySet()); }
+
+    private static long minutes(Duration window) {
+        long minutes = window.toMinutes();
+        if (minutes < 1 || minutes > MINUTES) throw new IllegalArgumentException("Window must be 1 to " + MINUTES + " minutes: " + window);
+        return minutes;
+    }
+    private BuildingOccupancy occupancy(Building building) {
+        BuildingOccupancy o = buildings.get(building);
+        return o != null ? o : buildings.computeIfAbsent(building, k -> new BuildingOccupancy());
+    }
+
+    private static class BuildingOccupancy {
+        final LongAdder present = new LongAdder();
+        final MinuteBucket[] minutes = new MinuteBucket[MINUTES];
+        final HyperLogLog[] sketches = new HyperLogLog[SKETCHES];
+        final AtomicLongArray sketchStamps = new AtomicLongArray(SKETCHES);
+
+        BuildingOccupancy() {
+            for (int i = 0; i < MINUTES; i++) minutes[i] = new MinuteBucket();
+            for (int i = 0; i < SKETCHES; i++) {
+                sketches[i] = new HyperLogLog(11);
+                sketchStamps.set(i, Long.MIN_VALUE);
+            }
+        }
+
+        // A bucket is recycled by the first move of a new minute; everyone else just counts.
+        MinuteBucket bucket(long minute) {
+            MinuteBucket b = minutes[Math.floorMod(minute, MINUTES)];
+            if (b.minute != minute) {
+                synchronized (b) {
+                    if (b.minute != minute) {
+                        b.arrivals.reset();
+                        b.headCount = present.sum();
+                        b.minute = minute;
+                    }
+                }
+            }
+            return b;
+        }
+        HyperLogLog sketch(long minute) {
+            long stamp = minute / SKETCH_MINUTES;
+            int slot = Math.floorMod(stamp, SKETCHES);
+            HyperLogLog sketch = sketches[slot];
+            if (sketchStamps.get(slot) != stamp) {
+                synchronized (sketch) {
+                    if (sketchStamps.get(slot) != stamp) {
+                        sketch.clear();
+                        sketchStamps.set(slot, stamp);
+                    }
+                }
+            }
+            return sketch;
+        }
+    }
+
+    private static class MinuteBucket {
+        final LongAdder arrivals = new LongAdder();
+        volatile long minute = Long.MIN_VALUE;
+        volatile long headCount;
+    }
+}
+
+// Immutable copy of a collection that changes far less often than it is read. Writers bump the
+// version after changing the source; the next reader copies it once and publishes the copy with
+// that version, and every reader after it gets the same list back without locking or allocating.
+// The copy is taken after the version is read, so it is never older than the version it carries.
+class SnapshotView<T> {
+    static final class Snapshot<T> {
+        final long version;
+        final List<T> items;
+        Snapshot(long version, List<T> items) { this.version = version; this.items = items; }
+    }
+    private final Supplier<? extends Collection<? extends T>> source;
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicReference<Snapshot<T>> published = new AtomicReference<>(new Snapshot<>(-1, List.of()));
+    SnapshotView(Supplier<? extends Collection<? extends T>> source) { this.source = source; }
+
+    void changed() { version.incrementAndGet(); }
+    public long version() { return version.get(); }
+    public List<T> get() { return snapshot().items; }
+    public Snapshot<T> snapshot() {
+        Snapshot<T> current = published.get();
+        long v = version.get();
+        if (current.version == v) return current;
+        Snapshot<T> fresh = new Snapshot<>(v, List.copyOf(source.get()));
+        // Several readers may rebuild the same version at once; only a newer copy replaces the old.
+        while (current.version < v && !published.compareAndSet(current, fresh)) current = published.get();
+        return fresh;
+    }
+}
+
+// HyperLogLog over 2^precision one-byte registers. Registers only ever grow, so concurrent adds
+// just CAS the register up and a plain read skips the write once it is large enough.
+class HyperLogLog {
+    private static final VarHandle REGISTER = MethodHandles.arrayElementVarHandle(byte[].class);
+    private final int precision;
+    private final byte[] registers;
+
+    HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    // SplitMix64 finalizer: sequential ids become well-spread 64-bit hashes.
+    static long hash(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        byte current;
+        while (rank > (current = (byte) REGISTER.getVolatile(registers, index))) {
+            if (REGISTER.compareAndSet(registers, index, current, rank)) return;
+        }
+    }
+    int size() { return registers.length; }
+    void mergeInto(byte[] target) {
+        for (int i = 0; i < target.length; i++) {
+            byte r = (byte) REGISTER.getVolatile(registers, i);
+            if (r > target[i]) target[i] = r;
+        }
+    }
+    void clear() { Arrays.fill(registers, (byte) 0); }
+    long estimate() {
+        byte[] copy = new byte[registers.length];
+        mergeInto(copy);
+        return estimate(copy);
+    }
+
+    static long estimate(byte[] registers) {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+        // Linear counting is far more accurate while many registers are still empty.
+        if (estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double) m / zeros);
+        return Math.round(estimate);
+    }
+}
+
+// Protects the park and its enclosures from overcrowding. Capacity is claimed with a CAS, so a
+// burst of arrivals never queues on a lock; when the park is full arrivals join a FIFO line
+// (or are turned away once the line is full) and are let in one by one as visitors leave.
+// Timed-slot tickets are optional: once enabled, each ticket is bound to an entry slot.
+class AdmissionController {
+    enum Outcome { ADMITTED, QUEUED, REJECTED }
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final int SLOT_HORIZON = 48;
+    private final Zoo zoo;
+    private final AtomicInteger inside = new AtomicInteger();
+    private volatile int capacity = UNLIMITED;
+    private volatile int maxQueue = 10_000;
+    private final Queue<Admission> line = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Map<Building, AtomicInteger> gates = new ConcurrentHashMap<>();
+    private final Map<Building, Integer> gateCapacities = new ConcurrentHashMap<>();
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final LongAdder rejected = new LongAdder();
+    private volatile long slotMillis;
+    private volatile int slotCapacity;
+    private final Map<Long, AtomicInteger> slotBookings = new ConcurrentHashMap<>();
+    private volatile SlotDay slotDay = new SlotDay(Long.MIN_VALUE);
+    private volatile LongSupplier clock = System::currentTimeMillis;
+
+    AdmissionController(Zoo zoo) { this.zoo = zoo; }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        letIn();
+    }
+    public void setMaxQueue(int maxQueue) { this.maxQueue = Math.max(0, maxQueue); }
+    // Caps one building. Visitors already inside count towards the cap.
+    public void setCapacity(Building building, int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        gates.computeIfAbsent(building, b -> new AtomicInteger((int) zoo.getOccupancy().getCurrent(b)));
+        gateCapacities.put(building, capacity);
+    }
+    public void enableTimedSlots(Duration slot, int perSlot) {
+        if (slot.toMillis() < 1 || perSlot < 1) throw new IllegalArgumentException("Invalid slot: " + slot + " x " + perSlot);
+        this.slotCapacity = perSlot;
+        this.slotMillis = slot.toMillis();
+    }
+    public boolean hasTimedSlots() { return slotMillis > 0; }
+    public void setClock(LongSupplier clock) { this.clock = clock; }
+
+    // Never blocks: the visitor is in, in line, or turned away.
+    public Admission enter(Visitor visitor) {
+        Admission admission = new Admission(visitor);
+        if (waiting.get() == 0 && tryClaim(inside, capacity)) {
+            admission.admit();
+            return admission;
+        }
+        if (waiting.incrementAndGet() > maxQueue) {
+            waiting.decrementAndGet();
+            rejected.increment();
+            admission.outcome = Outcome.REJECTED;
+            admission.ready.complete(false);
+            return admission;
+        }
+        admission.position = waiting.get();
+        line.add(admission);
+        letIn();
+        return admission;
+    }
+    void left(Visitor visitor, Building from) {
+        release(from);
+        if (visitor.admitted) {
+            visitor.admitted = false;
+            inside.decrementAndGet();
+            letIn();
+        }
+    }
+
+    // Hands free places to the head of the line. Whoever frees a place (or joins the line) runs
+    // this, and the queue is re-checked after a place is given back, so no waiter is stranded.
+    private void letIn() {
+        while (!line.isEmpty() && tryClaim(inside, capacity)) {
+            Admission next;
+            while ((next = line.poll()) != null) {
+                waiting.decrementAndGet();
+                if (next.admit()) break;
+            }
+            if (next == null) inside.decrementAndGet();
+        }
+    }
+
+    boolean tryReserve(Building building) {
+        AtomicInteger gate = building == null ? null : gates.get(building);
+        return gate == null || tryClaim(gate, gateCapacities.get(building));
+    }
+    // Keeps the gate counts right for every visitor move, whether or not a place was reserved.
+    void moved(Building from, Building to, boolean reserved) {
+        if (from == to) return;
+        release(from);
+        AtomicInteger gate = reserved || to == null ? null : gates.get(to);
+        if (gate != null) gate.incrementAndGet();
+    }
+    private void release(Building building) {
+        AtomicInteger gate = building == null ? null : gates.get(building);
+        if (gate != null) gate.decrementAndGet();
+    }
+    private static boolean tryClaim(AtomicInteger count, int limit) {
+        int n;
+        do {
+            n = count.get();
+            if (n >= limit) return false;
+        } while (!count.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    // Books the earliest slot from now with room left; returns its start, or -1 if every slot
+    // in the booking horizon is taken.
+    public long bookSlot(String ticketCode) {
+        long length = slotMillis;
+        long key = TicketCodes.decode(ticketCode);
+        if (length == 0 || key < 0) return -1;
+        long current = clock.getAsLong() / length * length;
+        slotBookings.keySet().removeIf(start -> start < current);
+        for (int i = 0; i < SLOT_HORIZON; i++) {
+            long start = current + i * length;
+            if (tryClaim(slotBookings.computeIfAbsent(start, s -> new AtomicInteger()), slotCapacity)) {
+                slotByTicket().put(key, start);
+                return start;
+            }
+        }
+        return -1;
+    }
+    // A ticket without a slot is always good; one with a slot is good from the slot's start
+    // until the end of the following slot, so latecomers get some grace.
+    public boolean inSlot(long ticketKey) {
+        Long start = slotByTicket().get(ticketKey);
+        if (start == null) return true;
+        long now = clock.getAsLong();
+        return now >= start && now < start + 2 * slotMillis;
+    }
+    public long getSlot(String ticketCode) { return slotByTicket().getOrDefault(TicketCodes.decode(ticketCode), -1L); }
+    void ticketRedeemed(long ticketKey) { slotByTicket().remove(ticketKey); }
+    // Bindings live as long as the registry's day: when its tickets expire, unused slots go with them.
+    private Map<Long, Long> slotByTicket() {
+        long expiresAt = zoo.getTicketRegistry().getExpiresAt();
+        SlotDay day = slotDay;
+        if (day.expiresAt == expiresAt) return day.byTicket;
+        synchronized (this) {
+            if (slotDay.expiresAt != expiresAt) slotDay = new SlotDay(expiresAt);
+            return slotDay.byTicket;
+        }
+    }
+    private static final class SlotDay {
+        final long expiresAt;
+        final Map<Long, Long> byTicket = new ConcurrentHashMap<>();
+        SlotDay(long expiresAt) { this.expiresAt = expiresAt; }
+    }
+
+    public int getInside() { return inside.get(); }
+    public int getCapacity() { return capacity; }
+    public int getWaiting() { return waiting.get(); }
+    public long getRejected() { return rejected.sum(); }
+    public int getInside(Building building) {
+        AtomicInteger gate = gates.get(building);
+        return gate == null ? (int) zoo.getOccupancy().getCurrent(building) : gate.get();
+    }
+    public int getCapacity(Building building) { return gateCapacities.getOrDefault(building, UNLIMITED); }
+    public LatencyHistogram.Summary getWaitTimes() { return waits.summary(); }
+
+    // One visitor's place at the gate. Waiting visitors can block on it or give up their place.
+    final class Admission {
+        private final Visitor visitor;
+        private final long queuedAt = System.nanoTime();
+        private final AtomicInteger state = new AtomicInteger();
+        private final CompletableFuture<Boolean> ready = new CompletableFuture<>();
+        private volatile Outcome outcome = Outcome.QUEUED;
+        private int position;
+
+        private Admission(Visitor visitor) { this.visitor = visitor; }
+
+        private boolean admit() {
+            if (!state.compareAndSet(0, 1)) return false;
+            visitor.admitted = true;
+            waits.record(System.nanoTime() - queuedAt);
+            outcome = Outcome.ADMITTED;
+            ready.complete(true);
+            return true;
+        }
+
+        public Outcome getOutcome() { return outcome; }
+        public int getPosition() { return position; }
+        public CompletableFuture<Boolean> whenAdmitted() { return ready; }
+        // Waits up to the timeout for a place; on timeout the visitor leaves the line.
+        public boolean await(Duration timeout) {
+            try {
+                return ready.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                cancel();
+                return ready.getNow(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel();
+                return ready.getNow(false);
+            } catch (ExecutionException e) {
+                return false;
+            }
+        }
+        public void cancel() {
+            if (!state.compareAndSet(0, 2)) return;
+            if (line.remove(this)) waiting.decrementAndGet();
+            ready.complete(false);
+        }
+    }
+}
+
+// The day's business in columns: ticket sales, hospital admissions and discharges, and handler
+// work, one row per event at 13 bytes a row. Rows are appended lock-free into 64K-row chunks;
+// reports reduce the chunks in parallel with plain loops over the primitive arrays.
+class DayBook {
+    enum Activity { TICKET, ADMISSION, DISCHARGE, FEEDING, EXERCISE }
+
+    static final int CHUNK_SHIFT = 16;
+    static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private static final VarHandle KIND = MethodHandles.arrayElementVarHandle(byte[].class);
+    private final Zoo zoo;
+    private final long startMillis;
+    private final long endMillis;
+    private final LongSupplier clock;
+    private final AtomicLong rows = new AtomicLong();
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    DayBook(Zoo zoo, LongSupplier clock) { this(zoo, clock, clock.getAsLong()); }
+    // A book covers the rest of the local day it was opened on, the same day the ticket
+    // registry's tickets are good for, so row offsets always fit in an int.
+    DayBook(Zoo zoo, LongSupplier clock, long startMillis) {
+        this.zoo = zoo;
+        this.clock = clock;
+        this.startMillis = startMillis;
+        ZoneId zone = ZoneId.systemDefault();
+        this.endMillis = Instant.ofEpochMilli(startMillis).atZone(zone).toLocalDate().plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    // key is the ticket type, animal id or handler id; amount is cents or a count.
+    void record(Activity activity, int key, int amount) {
+        long row = rows.getAndIncrement();
+        byte kind = (byte) (activity.ordinal() + 1);
+        // Clamped in case the clock steps back or the book is written after its day has ended.
+        int offset = (int) Math.max(0, Math.min(Integer.MAX_VALUE, clock.getAsLong() - startMillis));
+        Chunk c = chunk((int) (row >>> CHUNK_SHIFT));
+        put(c, (int) row & (CHUNK_ROWS - 1), kind, offset, key, amount);
+        ZooJournal j = zoo == null ? null : zoo.journal();
+        if (j != null) j.dayRow(startMillis, row, kind, offset, key, amount);
+    }
+    // Puts back a row from a snapshot or the log. A row that is already there is left alone, so
+    // replaying a row the snapshot also holds is harmless.
+    void restore(long row, byte kind, int offset, int key, int amount) {
+        if (kind == 0) return;
+        rows.accumulateAndGet(row + 1, Math::max);
+        Chunk c = chunk((int) (row >>> CHUNK_SHIFT));
+        int r = (int) row & (CHUNK_ROWS - 1);
+        if ((byte) KIND.getAcquire(c.kind, r) == 0) put(c, r, kind, offset, key, amount);
+    }
+    private static void put(Chunk c, int r, byte kind, int offset, int key, int amount) {
+        c.offsetMillis[r] = offset;
+        c.key[r] = key;
+        c.amount[r] = amount;
+        KIND.setRelease(c.kind, r, kind);
+        c.written.incrementAndGet();
+    }
+    // Every row in order, for snapshots; a row still being written comes through with kind 0.
+    void forEachRow(RowVisitor visitor) throws IOException {
+        Chunk[] cs = chunks;
+        long end = Math.min(rows.get(), (long) cs.length << CHUNK_SHIFT);
+        for (long row = 0; row < end; row++) {
+            Chunk c = cs[(int) (row >>> CHUNK_SHIFT)];
+            int r = (int) row & (CHUNK_ROWS - 1);
+            byte kind = (byte) KIND.getAcquire(c.kind, r);
+            visitor.visit(row, kind, c.offsetMillis[r], c.key[r], c.amount[r]);
+        }
+    }
+
+    public long getStartMillis() { return startMillis; }
+    public long getEndMillis() { return endMillis; }
+    public boolean isOver() { return clock.getAsLong() >= endMillis; }
+    public long now() { return clock.getAsLong(); }
+    // The next day's book, on the same clock.
+    DayBook next() { return new DayBook(zoo, clock); }
+    DayBook startingAt(long startMillis) { return new DayBook(zoo, clock, startMillis); }
+    public long size() { return rows.get(); }
+
+    // Reduces every chunk on the common pool and combines the partial results. A kind of 0
+    // marks a row that is still being written; reducers skip it.
+    public <A> A reduce(Supplier<A> identity, ChunkReducer<A> reducer, BinaryOperator<A> combiner) {
+        Chunk[] cs = chunks;
+        long end = Math.min(rows.get(), (long) cs.length << CHUNK_SHIFT);
+        int count = (int) ((end + CHUNK_ROWS - 1) >>> CHUNK_SHIFT);
+        return IntStream.range(0, count).parallel()
+                .mapToObj(i -> {
+                    Chunk c = cs[i];
+                    int n = (int) Math.min(CHUNK_ROWS, end - ((long) i << CHUNK_SHIFT));
+                    return reducer.reduce(identity.get(), c.offsetMillis, c.written.get() == CHUNK_ROWS ? c.kind : c.publishedKinds(n), c.key, c.amount, n);
+                })
+                .reduce(combiner)
+                .orElseGet(identity);
+    }
+
+    private Chunk chunk(int index) {
+        Chunk[] cs = chunks;
+        if (index < cs.length) return cs[index];
+        synchronized (this) {
+            cs = chunks;
+            if (index >= cs.length) {
+                Chunk[] grown = Arrays.copyOf(cs, index + 1);
+                for (int i = cs.length; i <= index; i++) grown[i] = new Chunk();
+                chunks = grown;
+                cs = grown;
+            }
+            return cs[index];
+        }
+    }
+
+    private static class Chunk {
+        final int[] offsetMillis = new int[CHUNK_ROWS];
+        final byte[] kind = new byte[CHUNK_ROWS];
+        final int[] key = new int[CHUNK_ROWS];
+        final int[] amount = new int[CHUNK_ROWS];
+        final AtomicInteger written = new AtomicInteger();
+
+        // A full chunk is safe to read as is; a partial one only row by row.
+        byte[] publishedKinds(int n) {
+            byte[] kinds = new byte[n];
+            for (int i = 0; i < n; i++) kinds[i] = (byte) KIND.getAcquire(kind, i);
+            return kinds;
+        }
+    }
+
+    interface ChunkReducer<A> {
+        A reduce(A into, int[] offsetMillis, byte[] kind, int[] key, int[] amount, int rows);
+    }
+    interface RowVisitor {
+        void visit(long row, byte kind, int offsetMillis, int key, int amount) throws IOException;
+    }
+}
+
+// End-of-day figures: ticket revenue by hour and type, shop revenue by hour, top products,
+// ward occupancy at the end of each hour, and per-handler work.
+class DailyReport {
+    static final long HOUR = 3_600_000L;
+    private static final int TOP_PRODUCTS = 5;
+    private final long startMillis;
+    private final int hours;
+    private final long[] ticketCount;
+    private final long[] ticketCents;
+    private final long[] shopCents;
+    private final long[] wardAtHour;
+    private final List<String> topProducts;
+    private final Map<String, long[]> handlerWork;
+    private final long elapsedNanos;
+
+    private DailyReport(long startMillis, int hours, long[] ticketCount, long[] ticketCents, long[] shopCents, long[] wardAtHour,
+                        List<String> topProducts, Map<String, long[]> handlerWork, long elapsedNanos) {
+        this.startMillis = startMillis;
+        this.hours = hours;
+        this.ticketCount = ticketCount;
+        this.ticketCents = ticketCents;
+        this.shopCents = shopCents;
+        this.wardAtHour = wardAtHour;
+        this.topProducts = topProducts;
+        this.handlerWork = handlerWork;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public static DailyReport compute(Zoo zoo) { return compute(zoo, zoo.getDayBook()); }
+    public static DailyReport compute(Zoo zoo, DayBook book) {
+        long started = System.nanoTime();
+        long start = book.getStartMillis();
+        long end = book.getEndMillis();
+        int hours = (int) Math.max(1, (Math.min(book.now(), book.getEndMillis()) - start + HOUR - 1) / HOUR);
+        int types = TicketingModule.TICKET_TYPES.length;
+        Totals totals = book.reduce(() -> new Totals(hours, types), Totals::add, Totals::merge);
+
+        long[] shopCents = new long[hours];
+        Map<Product, long[]> products = new HashMap<>();
+        for (Building b : zoo.getBuildings()) {
+            if (!(b instanceof Shop)) continue;
+            Shop shop = (Shop) b;
+            Map<Integer, Product> byId = new HashMap<>();
+            for (Product p : shop.getProducts()) byId.put(p.getId(), p);
+            Sales sales = shop.getSales().reduce(() -> new Sales(hours, start, end), Sales::add, Sales::merge);
+            for (int h = 0; h < hours; h++) shopCents[h] += sales.cents[h];
+            sales.byProduct.forEach((id, t) -> {
+                Product p = byId.get(id);
+                if (p != null) products.merge(p, t, (x, y) -> new long[] { x[0] + y[0], x[1] + y[1] });
+            });
+        }
+        List<String> top = products.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Product, long[]> e) -> e.getValue()[1]).reversed())
+                .limit(TOP_PRODUCTS)
+                .map(e -> String.format("%s: %,d sold, P%s", e.getKey().getName(), e.getValue()[0], pesos(e.getValue()[1])))
+                .collect(Collectors.toList());
+
+        // The book only sees its own day's movements; anchor them to the ward as it stands now,
+        // less whatever today has done to it when this is an earlier day.
+        Hospital hospital = zoo.getHospital();
+        long[] ward = new long[hours];
+        long occupancy = hospital == null ? 0 : hospital.getWardSize();
+        DayBook today = zoo.getDayBook();
+        if (today != book) {
+            Totals later = today.reduce(() -> new Totals(1, types), Totals::add, Totals::merge);
+            occupancy -= later.admissions[0] - later.discharges[0];
+        }
+        for (int h = hours - 1; h >= 0; h--) {
+            ward[h] = occupancy;
+            occupancy -= totals.admissions[h] - totals.discharges[h];
+        }
+
+        Map<Integer, String> names = new HashMap<>();
+        for (Person p : zoo.getPeople()) {
+            if (p instanceof Handler) names.put(p.getId(), p.getName());
+        }
+        Map<String, long[]> handlers = new LinkedHashMap<>();
+        totals.handlers.forEach((id, w) -> handlers.merge(names.getOrDefault(id, "#" + id), w, (x, y) -> new long[] { x[0] + y[0], x[1] + y[1] }));
+        return new DailyReport(start, hours, totals.ticketCount, totals.ticketCents, shopCents, ward, top, handlers, System.nanoTime() - started);
+    }
+
+    public long getTicketCount(int hour, int type) { return ticketCount[hour * TicketingModule.TICKET_TYPES.length + type]; }
+    public long getTicketCents() { return Arrays.stream(ticketCents).sum(); }
+    public long getShopCents() { return Arrays.stream(shopCents).sum(); }
+    public long getWardAt(int hour) { return wardAtHour[hour]; }
+    public List<String> getTopProducts() { return topProducts; }
+    public long[] getHandlerWork(String handler) { return handlerWork.get(handler); }
+    public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+    public void print(SessionIO io) {
+        String[] types = TicketingModule.TICKET_TYPES;
+        DateTimeFormatter time = DateTimeFormatter.ofPattern("MM-dd HH:00");
+        io.println("\n=== End-of-Day Report ===");
+        io.println("Revenue by hour:");
+        for (int h = 0; h < hours; h++) {
+            long tickets = 0;
+            long cents = 0;
+            StringBuilder byType = new StringBuilder();
+            for (int t = 0; t < types.length; t++) {
+                tickets += ticketCount[h * types.length + t];
+                cents += ticketCents[h * types.length + t];
+                byType.append(' ').append(types[t]).append(' ').append(ticketCount[h * types.length + t]);
+            }
+            if (tickets == 0 && shopCents[h] == 0) continue;
+            io.println("  " + time.format(Instant.ofEpochMilli(startMillis + h * HOUR).atZone(ZoneId.systemDefault()))
+                    + "  tickets " + tickets + " (" + byType.toString().trim() + ") P" + pesos(cents) + ", shops P" + pesos(shopCents[h]));
+        }
+        io.println("Total: tickets P" + pesos(getTicketCents()) + ", shops P" + pesos(getShopCents()));
+        io.println("Top products:");
+        if (topProducts.isEmpty()) io.println("  - None");
+        else topProducts.forEach(p -> io.println("  - " + p));
+        io.println("Hospital ward at the end of each hour:");
+        StringBuilder ward = new StringBuilder("  ");
+        for (int h = 0; h < hours; h++) ward.append(h == 0 ? "" : ", ").append(wardAtHour[h]);
+        io.println(ward.toString());
+        io.println("Handler activity:");
+        if (handlerWork.isEmpty()) io.println("  - None");
+        else handlerWork.forEach((name, w) -> io.println("  - " + name + ": " + w[0] + " feedings, " + w[1] + " exercise sessions"));
+        io.println("(computed in " + getElapsedMillis() + " ms)");
+    }
+
+    private static String pesos(long cents) { return String.format("%,d.%02d", cents / 100, cents % 100); }
+
+    private static class Totals {
+        final int types;
+        final long[] ticketCount;
+        final long[] ticketCents;
+        final long[] admissions;
+        final long[] discharges;
+        final Map<Integer, long[]> handlers = new HashMap<>();
+
+        Totals(int hours, int types) {
+            this.types = types;
+            this.ticketCount = new long[hours * types];
+            this.ticketCents = new long[hours * types];
+            this.admissions = new long[hours];
+            this.discharges = new long[hours];
+        }
+
+        Totals add(int[] offsetMillis, byte[] kind, int[] key, int[] amount, int rows) {
+            int hours = admissions.length;
+            int lastHandler = -1;
+            long[] work = null;
+            for (int i = 0; i < rows; i++) {
+                long hour = offsetMillis[i] / HOUR;
+                if (hour < 0) continue;
+                int h = (int) Math.min(hours - 1, hour);
+                switch (kind[i]) {
+                    case 1:
+                        ticketCount[h * types + key[i]]++;
+                        ticketCents[h * types + key[i]] += amount[i];
+                        break;
+                    case 2: admissions[h] += amount[i]; break;
+                    case 3: discharges[h] += amount[i]; break;
+                    case 4:
+                    case 5:
+                        if (key[i] != lastHandler) {
+                            lastHandler = key[i];
+                            work = handlers.computeIfAbsent(lastHandler, k -> new long[2]);
+                        }
+                        work[kind[i] - 4] += amount[i];
+                        break;
+                    default:
+                }
+            }
+            return this;
+        }
+
+        Totals merge(Totals other) {
+            for (int i = 0; i < ticketCount.length; i++) {
+                ticketCount[i] += other.ticketCount[i];
+                ticketCents[i] += other.ticketCents[i];
+            }
+            for (int h = 0; h < admissions.length; h++) {
+                admissions[h] += other.admissions[h];
+                discharges[h] += other.discharges[h];
+            }
+            other.handlers.forEach((id, w) -> handlers.merge(id, w, (x, y) -> new long[] { x[0] + y[0], x[1] + y[1] }));
+            return this;
+        }
+    }
+
+    private static class Sales {
+        final long start;
+        final long end;
+        final long[] cents;
+        final Map<Integer, long[]> byProduct = new HashMap<>();
+
+        Sales(int hours, long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.cents = new long[hours];
+        }
+
+        Sales add(long[] epochMillis, int[] product, int[] quantity, long[] amountCents, int rows) {
+            for (int i = 0; i < rows; i++) {
+                if (quantity[i] == 0 || epochMillis[i] < start || epochMillis[i] >= end) continue;
+                cents[(int) Math.min(cents.length - 1, (epochMillis[i] - start) / HOUR)] += amountCents[i];
+                long[] t = byProduct.computeIfAbsent(product[i], k -> new long[2]);
+                t[0] += quantity[i];
+                t[1] += amountCents[i];
+            }
+            return this;
+        }
+
+        Sales merge(Sales other) {
+            for (int h = 0; h < cents.length; h++) cents[h] += other.cents[h];
+            other.byProduct.forEach((id, t) -> byProduct.merge(id, t, (x, y) -> new long[] { x[0] + y[0], x[1] + y[1] }));
+            return this;
+        }
+    }
+}
+
+// Operational counters for one zoo. Hot paths only touch LongAdders and striped histograms,
+// so concurrent sessions do not contend on a shared cache line; snapshot() does the summing.
+class ZooMetrics {
+    final LongAdder ticketsSold = new LongAdder();
+    final LongAdder ticketValidations = new LongAdder();
+    final LongAdder ticketValidationFailures = new LongAdder();
+    final LongAdder checkouts = new LongAdder();
+    final LongAdder revenueCents = new LongAdder();
+    final LongAdder hospitalAdmissions = new LongAdder();
+    final LongAdder hospitalDischarges = new LongAdder();
+    final LatencyHistogram ticketSaleLatency = new LatencyHistogram();
+    final LatencyHistogram ticketValidationLatency = new LatencyHistogram();
+    final LatencyHistogram checkoutLatency = new LatencyHistogram();
+    private final Map<Handler, HandlerWork> handlerWork = new ConcurrentHashMap<>();
+    private final Map<Building, LongAdder> visitorMovements = new ConcurrentHashMap<>();
+    private final Zoo zoo;
+
+    ZooMetrics(Zoo zoo) { this.zoo = zoo; }
+
+    void ticketSold(long nanos) {
+        ticketsSold.increment();
+        ticketSaleLatency.record(nanos);
+    }
+    void ticketValidated(boolean valid, long nanos) {
+        ticketValidations.increment();
+        if (!valid) ticketValidationFailures.increment();
+        ticketValidationLatency.record(nanos);
+    }
+    void checkout(long cents, long nanos) {
+        checkouts.increment();
+        revenueCents.add(cents);
+        checkoutLatency.record(nanos);
+    }
+    void admitted() { hospitalAdmissions.increment(); }
+    void discharged(int count) { hospitalDischarges.add(count); }
+    void fed(Handler handler) { work(handler).feedings.increment(); }
+    void exercised(Handler handler) { work(handler).exercises.increment(); }
+    void visitorMoved(Building destination) {
+        LongAdder moves = visitorMovements.get(destination);
+        if (moves == null) moves = visitorMovements.computeIfAbsent(destination, k -> new LongAdder());
+        moves.increment();
+    }
+
+    private HandlerWork work(Handler handler) {
+        HandlerWork work = handlerWork.get(handler);
+        return work != null ? work : handlerWork.computeIfAbsent(handler, k -> new HandlerWork());
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("tickets_sold", ticketsSold.sum());
+        counters.put("ticket_validations", ticketValidations.sum());
+        counters.put("ticket_validation_failures", ticketValidationFailures.sum());
+        counters.put("checkouts", checkouts.sum());
+        counters.put("revenue_cents", revenueCents.sum());
+        counters.put("hospital_admissions", hospitalAdmissions.sum());
+        counters.put("hospital_discharges", hospitalDischarges.sum());
+        Map<String, Long> gauges = new LinkedHashMap<>();
+        Hospital hospital = zoo.getHospital();
+        gauges.put("hospital_ward_size", hospital == null ? 0L : hospital.getWardSize());
+        gauges.put("animals", (long) zoo.getAnimals().size());
+        gauges.put("people", (long) zoo.getPeople().size());
+        AdmissionController admissions = zoo.getAdmissions();
+        gauges.put("visitors_inside", (long) admissions.getInside());
+        gauges.put("admission_queue", (long) admissions.getWaiting());
+        counters.put("admissions_rejected", admissions.getRejected());
+        Map<String, LatencyHistogram.Summary> latencies = new LinkedHashMap<>();
+        latencies.put("ticket_sale", ticketSaleLatency.summary());
+        latencies.put("ticket_validation", ticketValidationLatency.summary());
+        latencies.put("checkout", checkoutLatency.summary());
+        latencies.put("admission_wait", zoo.getAdmissions().getWaitTimes());
+        Map<String, long[]> handlers = new LinkedHashMap<>();
+        handlerWork.forEach((h, w) -> {
+            long[] totals = handlers.computeIfAbsent(h.getName(), k -> new long[2]);
+            totals[0] += w.feedings.sum();
+            totals[1] += w.exercises.sum();
+        });
+        Map<String, Long> movements = new LinkedHashMap<>();
+        visitorMovements.forEach((b, n) -> movements.merge(b.getName(), n.sum(), Long::sum));
+        return new MetricsSnapshot(Instant.now(), counters, gauges, latencies, handlers, movements);
+    }
+
+    private static class HandlerWork {
+        final LongAdder feedings = new LongAdder();
+        final LongAdder exercises = new LongAdder();
+    }
+}
+
+// Log-linear buckets (8 per power of two, so about 12% resolution) with one row of buckets
+// per stripe. Threads pick a stripe by id, so recording is a single uncontended increment.
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = 62 * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new AtomicLongArray(BUCKETS);
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        stripes[(int) Thread.currentThread().threadId() & (STRIPES - 1)].getAndIncrement(bucketOf(value));
+        totalNanos.add(value);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - 2) * SUB_BUCKETS + (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+    }
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        return lower + (1L << (exponent - 3)) - 1;
+    }
+
+    public Summary summary() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int b = 0; b < BUCKETS; b++) {
+                long n = stripe.get(b);
+                counts[b] += n;
+                total += n;
+            }
+        }
+        return new Summary(total, totalNanos.sum(), percentile(counts, total, 0.50), percentile(counts, total, 0.99),
+                percentile(counts, total, 0.999), percentile(counts, total, 1.0));
+    }
+
+    private static long percentile(long[] counts, long total, double p) {
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) return upperBound(b);
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    static class Summary {
+        final long count;
+        final long sumNanos;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long p999Nanos;
+        final long maxNanos;
+        Summary(long count, long sumNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+    }
+}
+
+class MetricsSnapshot {
+    private final Instant takenAt;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+    private final Map<String, LatencyHistogram.Summary> latencies;
+    private final Map<String, long[]> handlerWork;
+    private final Map<String, Long> visitorMovements;
+
+    MetricsSnapshot(Instant takenAt, Map<String, Long> counters, Map<String, Long> gauges, Map<String, LatencyHistogram.Summary> latencies,
+                    Map<String, long[]> handlerWork, Map<String, Long> visitorMovements) {
+        this.takenAt = takenAt;
+        this.counters = counters;
+        this.gauges = gauges;
+        this.latencies = latencies;
+        this.handlerWork = handlerWork;
+        this.visitorMovements = visitorMovements;
+    }
+
+    public Instant getTakenAt() { return takenAt; }
+    public long counter(String name) { return counters.getOrDefault(name, 0L); }
+    public long gauge(String name) { return gauges.getOrDefault(name, 0L); }
+    public LatencyHistogram.Summary latency(String name) { return latencies.get(name); }
+    public long feedings(String handler) { long[] w = handlerWork.get(handler); return w == null ? 0 : w[0]; }
+    public long exercises(String handler) { long[] w = handlerWork.get(handler); return w == null ? 0 : w[1]; }
+    public long visitorMovements(String building) { return visitorMovements.getOrDefault(building, 0L); }
+
+    // Prometheus text exposition format, so any stock scraper can read /metrics.
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(2048);
+        counters.forEach((name, value) -> metric(sb, "zoo_" + name + "_total", "counter").append("zoo_").append(name).append("_total ").append(value).append('\n'));
+        gauges.forEach((name, value) -> metric(sb, "zoo_" + name, "gauge").append("zoo_").append(name).append(' ').append(value).append('\n'));
+        latencies.forEach((name, s) -> {
+            String metric = "zoo_" + name + "_seconds";
+            metric(sb, metric, "summary");
+            quantile(sb, metric, "0.5", s.p50Nanos);
+            quantile(sb, metric, "0.99", s.p99Nanos);
+            quantile(sb, metric, "0.999", s.p999Nanos);
+            quantile(sb, metric, "1", s.maxNanos);
+            sb.append(metric).append("_sum ").append(s.sumNanos / 1e9).append('\n');
+            sb.append(metric).append("_count ").append(s.count).append('\n');
+        });
+        metric(sb, "zoo_handler_feedings_total", "counter");
+        handlerWork.forEach((h, w) -> sb.append("zoo_handler_feedings_total{handler=\"").append(escape(h)).append("\"} ").append(w[0]).append('\n'));
+        metric(sb, "zoo_handler_exercises_total", "counter");
+        handlerWork.forEach((h, w) -> sb.append("zoo_handler_exercises_total{handler=\"").append(escape(h)).append("\"} ").append(w[1]).append('\n'));
+        metric(sb, "zoo_visitor_movements_total", "counter");
+        visitorMovements.forEach((b, n) -> sb.append("zoo_visitor_movements_total{building=\"").append(escape(b)).append("\"} ").append(n).append('\n'));
+        return sb.toString();
+    }
+
+    private static StringBuilder metric(StringBuilder sb, String name, String type) {
+        return sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+    private static void quantile(StringBuilder sb, String metric, String q, long nanos) {
+        sb.append(metric).append("{quantile=\"").append(q).append("\"} ").append(nanos / 1e9).append('\n');
+    }
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
+
+// Serves GET /metrics on the loopback interface. Started from main when -Dzoo.metrics.port is set.
+class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+
+    public MetricsServer(Zoo zoo, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = zoo.getMetrics().snapshot().toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    @Override
+    public void close() { server.stop(0); }
+}
+
+// Tickets are kept as packed longs in a striped open-addressing table, one table per
+// calendar day. Yesterday's table is dropped on the first access after midnight.
+class TicketRegistry {
+    private static final int STRIPES = 16;
+    private static final int ISSUED = 1;
+    private static final int REDEEMED = 2;
+    private final Clock clock;
+    private volatile DayLedger today;
+
+    public TicketRegistry() { this(Clock.systemDefaultZone()); }
+    public TicketRegistry(Clock clock) {
+        this.clock = clock;
+        this.today = new DayLedger(clock);
+    }
+
+    public boolean issue(String code) { return issueKey(pack(code)); }
+    public boolean isValid(String code) {
+        long key = pack(code);
+        return key >= 0 && ledger().stripe(key).state(key) == ISSUED;
+    }
+    public boolean redeem(String code) { return redeemKey(pack(code)); }
+    public int size() { return ledger().size(); }
+
+    boolean issueKey(long key) { return key >= 0 && ledger().stripe(key).add(key); }
+    boolean redeemKey(long key) { return key >= 0 && ledger().stripe(key).redeem(key); }
+
+    // Today's tickets in slot encoding, for snapshots.
+    long[] exportSlots() {
+        DayLedger ledger = ledger();
+        long[][] parts = new long[STRIPES][];
+        int total = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            parts[i] = ledger.stripes[i].occupied();
+            total += parts[i].length;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] part : parts) {
+            System.arraycopy(part, 0, all, pos, part.length);
+            pos += part.length;
+        }
+        return all;
+    }
+    long getExpiresAt() { return ledger().expiresAt; }
+    // Slots exported on an earlier day are ignored: those tickets have expired.
+    void importSlots(long[] slots, long expiresAt) {
+        DayLedger ledger = ledger();
+        if (expiresAt != ledger.expiresAt) return;
+        for (Stripe stripe : ledger.stripes) stripe.ensureCapacity(slots.length / STRIPES * 9 / 8);
+        for (long slot : slots) {
+            long key = Math.abs(slot) - 1;
+            Stripe stripe = ledger.stripe(key);
+            stripe.add(key);
+            if (slot < 0) stripe.redeem(key);
+        }
+    }
+
+    static long pack(String code) { return TicketCodes.decode(code); }
+
+    private DayLedger ledger() {
+        DayLedger current = today;
+        if (clock.millis() < current.expiresAt) return current;
+        synchronized (this) {
+            if (clock.millis() >= today.expiresAt) today = new DayLedger(clock);
+            return today;
+        }
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static class DayLedger {
+        final long expiresAt;
+        final Stripe[] stripes = new Stripe[STRIPES];
+
+        DayLedger(Clock clock) {
+            LocalDate tomorrow = LocalDate.now(clock).plusDays(1);
+            this.expiresAt = tomorrow.atStartOfDay(clock.getZone()).toInstant().toEpochMilli();
+            for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+        }
+        Stripe stripe(long key) { return stripes[(int) (mix(key) >>> 60)]; }
+        int size() {
+            int total = 0;
+            for (Stripe s : stripes) total += s.size();
+            return total;
+        }
+    }
+
+    // Slot encoding: 0 = empty, key + 1 = issued, -(key + 1) = redeemed.
+    private static class Stripe {
+        private long[] slots = new long[64];
+        private int size;
+
+        synchronized boolean add(long key) {
+            if ((size + 1) * 4 > slots.length * 3) resize();
+            int i = find(slots, key);
+            if (slots[i] != 0) return false;
+            slots[i] = key + 1;
+            size++;
+            return true;
+        }
+        synchronized int state(long key) {
+            long slot = slots[find(slots, key)];
+            return slot == 0 ? 0 : slot > 0 ? ISSUED : REDEEMED;
+        }
+        synchronized boolean redeem(long key) {
+            int i = find(slots, key);
+            if (slots[i] <= 0) return false;
+            slots[i] = -slots[i];
+            return true;
+        }
+        synchronized int size() { return size; }
+        synchronized void ensureCapacity(int entries) {
+            while ((size + entries) * 4 > slots.length * 3) resize();
+        }
+        synchronized long[] occupied() {
+            long[] out = new long[size];
+            int n = 0;
+            for (long slot : slots) {
+                if (slot != 0) out[n++] = slot;
+            }
+            return out;
+        }
+
+        private static int find(long[] table, long key) {
+            int mask = table.length - 1;
+            int i = (int) mix(key) & mask;
+            while (table[i] != 0 && Math.abs(table[i]) != key + 1) i = (i + 1) & mask;
+            return i;
+        }
+        private void resize() {
+            long[] grown = new long[slots.length * 2];
+            for (long slot : slots) {
+                if (slot != 0) grown[find(grown, Math.abs(slot) - 1)] = slot;
+            }
+            slots = grown;
+        }
+    }
+}
+
+interface TicketCodeGenerator {
+    String next();
+}
+
+// Codes look like "ZOO-" + 8 Crockford base-32 digits + 1 check digit, i.e. a 40-bit value.
+class TicketCodes {
+    static final int BITS = 40;
+    static final long MASK = (1L << BITS) - 1;
+    // Federated parks keep their id in the top PARK_BITS of the value.
+    static final int PARK_BITS = 8;
+    static final int MAX_PARKS = 1 << PARK_BITS;
+    static final long PARK_MASK = (1L << (BITS - PARK_BITS)) - 1;
+    private static final int DIGITS = BITS / 5;
+    private static final String PREFIX = "ZOO-";
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+            VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private TicketCodes() { }
+
+    static int parkOf(long value) { return (int) (value >>> (BITS - PARK_BITS)); }
+
+    static String encode(long value) {
+        char[] out = new char[PREFIX.length() + DIGITS + 1];
+        PREFIX.getChars(0, PREFIX.length(), out, 0);
+        int[] digits = new int[DIGITS];
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            digits[i] = (int) (value & 31);
+            value >>>= 5;
+        }
+        for (int i = 0; i < DIGITS; i++) out[PREFIX.length() + i] = ALPHABET[digits[i]];
+        out[out.length - 1] = ALPHABET[checkDigit(digits)];
+        return new String(out);
+    }
+
+    // Returns the packed value, or -1 if the code is malformed or fails its check digit.
+    static long decode(String code) {
+        if (code == null || code.length() != PREFIX.length() + DIGITS + 1 || !code.regionMatches(true, 0, PREFIX, 0, PREFIX.length())) return -1;
+        int[] digits = new int[DIGITS];
+        long value = 0;
+        for (int i = 0; i < DIGITS; i++) {
+            int d = digit(code.charAt(PREFIX.length() + i));
+            if (d < 0) return -1;
+            digits[i] = d;
+            value = (value << 5) | d;
+        }
+        return digit(code.charAt(code.length() - 1)) == checkDigit(digits) ? value : -1;
+    }
+
+    private static int digit(char c) { return c < 128 ? VALUES[c] : -1; }
+
+    // Luhn mod 32: catches every single-digit typo and most adjacent swaps.
+    private static int checkDigit(int[] digits) {
+        int sum = 0;
+        boolean dbl = true;
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            int d = digits[i];
+            if (dbl) {
+                d *= 2;
+                d = d / 32 + d % 32;
+            }
+            sum += d;
+            dbl = !dbl;
+        }
+        return (32 - sum % 32) % 32;
+    }
+}
+
+// Each thread reserves a block of sequence numbers from a shared counter, so sellers only touch
+// the atomic once per BLOCK codes. Sequence numbers go through a 40-bit bijection, which keeps
+// codes unique while making consecutive sales look unrelated.
+class SequenceTicketCodeGenerator implements TicketCodeGenerator {
+    private static final int BLOCK = 256;
+    private final AtomicLong sequence = new AtomicLong();
+    private final long salt;
+    private final int park;
+    private final long limit;
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[2]);
+    private volatile LongConsumer onReserve;
+
+    public SequenceTicketCodeGenerator() { this(new SecureRandom().nextLong()); }
+    public SequenceTicketCodeGenerator(long seed) { this(seed, -1); }
+    // Park codes scramble only the low bits and keep the park id on top.
+    public SequenceTicketCodeGenerator(long seed, int park) { this(seed, park, 0); }
+    // Resumes a restored generator: same salt, and no sequence below what was already reserved.
+    public SequenceTicketCodeGenerator(long seed, int park, long reserved) {
+        this.park = park;
+        this.limit = park < 0 ? TicketCodes.MASK : TicketCodes.PARK_MASK;
+        this.salt = seed & limit;
+        this.sequence.set(reserved);
+    }
+
+    long getSalt() { return salt; }
+    int getPark() { return park; }
+    // Every sequence below this has been handed to some thread's block.
+    long getReserved() { return sequence.get(); }
+    void advanceTo(long reserved) { sequence.accumulateAndGet(reserved, Math::max); }
+    // Told the new high-water mark each time a block is reserved, before any code from it is used.
+    void onReserve(LongConsumer listener) { this.onReserve = listener; }
+
+    @Override
+    public String next() {
+        long sequence = nextSequence();
+        return TicketCodes.encode(park < 0 ? scramble(sequence) : (long) park << (TicketCodes.BITS - TicketCodes.PARK_BITS) | scramblePark(sequence));
+    }
+
+    private long nextSequence() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            long start = sequence.getAndAdd(BLOCK);
+            if (start > limit - BLOCK) throw new IllegalStateException("Ticket code space exhausted");
+            LongConsumer listener = onReserve;
+            if (listener != null) listener.accept(start + BLOCK);
+            block[0] = start;
+            block[1] = start + BLOCK;
+        }
+        return block[0]++;
+    }
+
+    private long scramble(long x) {
+        x = (x * 0x9E3779B97L) & TicketCodes.MASK;
+        x ^= x >>> 20;
+        x = (x * 0xC2B2AE3D27L) & TicketCodes.MASK;
+        x ^= x >>> 20;
+        return x ^ salt;
+    }
+    // The same idea over the 32 bits below the park id.
+    private long scramblePark(long x) {
+        x = (x * 0x9E3779B1L) & TicketCodes.PARK_MASK;
+        x ^= x >>> 16;
+        x = (x * 0x85EBCA6BL) & TicketCodes.PARK_MASK;
+        x ^= x >>> 16;
+        return x ^ salt;
+    }
+}
+
+// Usage: java -cp target/classes org.example.TicketCodeBenchmark [threads] [seconds] [--verify]
+class TicketCodeBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        boolean verify = args.length > 2 && args[2].equals("--verify");
+
+        TicketCodeGenerator generator = new SequenceTicketCodeGenerator();
+        for (int i = 0; i < 200_000; i++) generator.next(); // warm-up
+
+        LongAdder total = new LongAdder();
+        long[][] issued = new long[threads][];
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers[t] = new Thread(() -> {
+                long[] seen = new long[verify ? 1 << 16 : 0];
+                int count = 0;
+                try { start.await(); } catch (InterruptedException e) { return; }
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < 1024; i++) {
+                        String code = generator.next();
+                        if (verify) {
+                            if (count == seen.length) seen = Arrays.copyOf(seen, count * 2);
+                            seen[count] = TicketCodes.decode(code);
+                        }
+                        count++;
+                    }
+                }
+                total.add(count);
+                issued[id] = Arrays.copyOf(seen, verify ? count : 0);
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread w : workers) w.join();
+
+        System.out.printf("%d threads, %d s: %,d codes (%,.0f codes/s)%n", threads, seconds, total.sum(), total.sum() / (double) seconds);
+        if (verify) {
+            long[] all = Arrays.stream(issued).flatMapToLong(Arrays::stream).sorted().toArray();
+            long duplicates = 0, invalid = 0;
+            for (int i = 0; i < all.length; i++) {
+                if (all[i] < 0) invalid++;
+                else if (i > 0 && all[i] == all[i - 1]) duplicates++;
+            }
+            System.out.printf("verified %,d codes: %d duplicates, %d failed check digit%n", all.length, duplicates, invalid);
+        }
+    }
+}
+
+// Headless discrete-event driver. Events live in a primitive binary heap ordered by
+// (simulated time, insertion order), so a given seed always replays the same day.
+class SimulationEngine {
+    enum EventType { VISITOR_ARRIVAL, TICKET_SALE, ENCLOSURE_VISIT, SHOP_PURCHASE, VISITOR_DEPARTURE, FEEDING, EXERCISE, HOSPITAL_ADMISSION, VET_ROUND }
+
+    private static final EventType[] TYPES = EventType.values();
+    private static final long MINUTE = 60_000L;
+
+    private final Zoo zoo;
+    private final SplittableRandom random;
+    private final EventQueue queue = new EventQueue();
+    private final List<Visitor> visitors = new ArrayList<>();
+    private final List<Handler> handlers = new ArrayList<>();
+    // Animals each handler has found sick and not yet taken to the hospital, by handler index.
+    private final List<List<Animal>> pendingAdmissions = new ArrayList<>();
+    private final long[] processed = new long[TYPES.length];
+    private double meanArrivalGapMillis = 1_000;
+    private double sicknessChance = 0.01;
+    private EventSink events = EventSink.NONE;
+    private long now;
+    private long revenueCents;
+
+    public SimulationEngine(Zoo zoo, long seed) {
+        this.zoo = zoo;
+        this.random = new SplittableRandom(seed);
+        for (Person p : zoo.getPeople()) {
+            if (p instanceof Handler) handlers.add((Handler) p);
+        }
+        for (int h = 0; h < handlers.size(); h++) pendingAdmissions.add(new ArrayList<>());
+    }
+
+    public SimulationEngine visitorsPerHour(double rate) { this.meanArrivalGapMillis = 3_600_000.0 / rate; return this; }
+    public SimulationEngine sicknessChance(double chance) { this.sicknessChance = chance; return this; }
+    public SimulationEngine quiet(boolean quiet) { this.events = quiet ? EventSink.NONE : ZooEvents.sink(); return this; }
+    public SimulationEngine events(EventSink sink) { this.events = sink; return this; }
+    public long now() { return now; }
+
+    public void schedule(long at, EventType type, int subject) { queue.push(at, type.ordinal(), subject); }
+
+    public SimulationReport run(long durationMillis) {
+        scheduleOpening();
+        EventSink previous = ZooEvents.bind(events);
+        long started = System.nanoTime();
+        try {
+            while (!queue.isEmpty() && queue.peekTime() <= durationMillis) {
+                now = queue.peekTime();
+                EventType type = TYPES[queue.peekType()];
+                int subject = queue.peekSubject();
+                queue.pop();
+                processed[type.ordinal()]++;
+                dispatch(type, subject, durationMillis);
+            }
+        } finally {
+            ZooEvents.bind(previous);
+        }
+        return new SimulationReport(processed.clone(), System.nanoTime() - started, now, revenueCents, visitors.size());
+    }
+
+    private void scheduleOpening() {
+        zoo.setOpen(true);
+        schedule(nextArrivalGap(), EventType.VISITOR_ARRIVAL, -1);
+        for (int h = 0; h < handlers.size(); h++) {
+            schedule(random.nextLong(30 * MINUTE), EventType.FEEDING, h);
+            schedule(random.nextLong(60 * MINUTE), EventType.EXERCISE, h);
+        }
+        schedule(60 * MINUTE, EventType.VET_ROUND, -1);
+    }
+
+    private void dispatch(EventType type, int subject, long closing) {
+        switch (type) {
+            case VISITOR_ARRIVAL: {
+                Visitor visitor = new Visitor("Visitor-" + visitors.size(), zoo.getTicketShop());
+                visitor.setAge(random.nextInt(1, 90));
+                visitors.add(visitor);
+                schedule(now + 1 + random.nextLong(2 * MINUTE), EventType.TICKET_SALE, visitors.size() - 1);
+                schedule(now + nextArrivalGap(), EventType.VISITOR_ARRIVAL, -1);
+                break;
+            }
+            case TICKET_SALE: {
+                Visitor visitor = visitors.get(subject);
+                String code = zoo.issueTicket();
+                visitor.setTicketCode(code);
+                zoo.addPerson(visitor);
+                if (zoo.redeemTicket(code)) scheduleNextActivity(subject);
+                break;
+            }
+            case ENCLOSURE_VISIT: {
+                List<Enclosure> enclosures = zoo.getEnclosures();
+                if (!enclosures.isEmpty()) {
+                    Enclosure enclosure = enclosures.get(random.nextInt(enclosures.size()));
+                    visitors.get(subject).goTo(enclosure);
+                    List<Animal> animals = zoo.getAnimalsInEnclosure(enclosure);
+                    if (!animals.isEmpty()) animals.get(random.nextInt(animals.size())).makeSound();
+                }
+                scheduleNextActivity(subject);
+                break;
+            }
+            case SHOP_PURCHASE: {
+                Shop shop = zoo.getFoodShop();
+                if (shop != null && !shop.getProducts().isEmpty()) {
+                    Visitor visitor = visitors.get(subject);
+                    visitor.goTo(shop);
+                    List<Product> products = shop.getProducts();
+                    List<Product> cart = new ArrayList<>(3);
+                    for (int items = 1 + random.nextInt(3); items > 0; items--) cart.add(products.get(random.nextInt(products.size())));
+                    Receipt receipt = shop.checkout(visitor, cart);
+                    if (receipt.isPaid()) revenueCents += receipt.getTotalCents();
+                }
+                scheduleNextActivity(subject);
+                break;
+            }
+            case VISITOR_DEPARTURE:
+                visitors.get(subject).leaveZoo();
+                break;
+            case FEEDING:
+            case EXERCISE: {
+                Handler handler = handlers.get(subject);
+                List<Animal> animals = handler.getLocation() instanceof Enclosure
+                        ? zoo.getAnimalsInEnclosure((Enclosure) handler.getLocation()) : List.of();
+                for (int i = 0; i < animals.size(); i++) {
+                    Animal animal = animals.get(i);
+                    if (type == EventType.FEEDING) handler.feed(animal);
+                    else handler.exercise(animal);
+                    if (random.nextDouble() < sicknessChance) {
+                        List<Animal> pending = pendingAdmissions.get(subject);
+                        // One trip to the hospital takes everything this handler found on the round.
+                        if (pending.isEmpty()) schedule(now + 1, EventType.HOSPITAL_ADMISSION, subject);
+                        pending.add(animal);
+                    }
+                }
+                schedule(now + (type == EventType.FEEDING ? 4 * 60 : 3 * 60) * MINUTE, type, subject);
+                break;
+            }
+            case HOSPITAL_ADMISSION: {
+                Handler handler = handlers.get(subject);
+                List<Animal> pending = pendingAdmissions.get(subject);
+                for (Animal animal : pending) {
+                    if (animal.getLocation() != zoo.getHospital()) handler.examine(animal, zoo);
+                }
+                pending.clear();
+                break;
+            }
+            case VET_ROUND: {
+                Veterinarian vet = zoo.getVeterinarian();
+                Hospital hospital = zoo.getHospital();
+                if (vet != null && hospital != null) vet.healAll(hospital);
+                if (now + 60 * MINUTE <= closing) schedule(now + 60 * MINUTE, EventType.VET_ROUND, -1);
+                break;
+            }
+        }
+    }
+
+    private void scheduleNextActivity(int visitor) {
+        long at = now + MINUTE + random.nextLong(20 * MINUTE);
+        int roll = random.nextInt(10);
+        EventType next = roll < 6 ? EventType.ENCLOSURE_VISIT : roll < 9 ? EventType.SHOP_PURCHASE : EventType.VISITOR_DEPARTURE;
+        schedule(at, next, visitor);
+    }
+
+    private long nextArrivalGap() {
+        return 1 + (long) (-Math.log(1 - random.nextDouble()) * meanArrivalGapMillis);
+    }
+
+    // Usage: java -cp target/classes org.example.SimulationEngine [seed] [visitorsPerHour] [hours]
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42L;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 100_000;
+        long hours = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+        Zoo zoo = new Zoo();
+        zoo.initializeDefaultState();
+        zoo.setTicketCodeGenerator(new SequenceTicketCodeGenerator(seed));
+        SimulationReport report = new SimulationEngine(zoo, seed).visitorsPerHour(rate).run(hours * 60 * MINUTE);
+        report.print(System.out);
+    }
+
+    static class EventQueue {
+        private long[] times = new long[1024];
+        private long[] order = new long[1024];
+        private int[] types = new int[1024];
+        private int[] subjects = new int[1024];
+        private int size;
+        private long sequence;
+
+        boolean isEmpty() { return size == 0; }
+        int size() { return size; }
+        long peekTime() { return times[0]; }
+        int peekType() { return types[0]; }
+        int peekSubject() { return subjects[0]; }
+
+        void push(long time, int type, int subject) {
+            if (size == times.length) grow();
+            int i = size++;
+            long seq = sequence++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(time, seq, times[parent], order[parent])) break;
+                move(parent, i);
+                i = parent;
+            }
+            set(i, time, seq, type, subject);
+        }
+
+        void pop() {
+            int last = --size;
+            if (last == 0) return;
+            long time = times[last], seq = order[last];
+            int type = types[last], subject = subjects[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && less(times[child + 1], order[child + 1], times[child], order[child])) child++;
+                if (!less(times[child], order[child], time, seq)) break;
+                move(child, i);
+                i = child;
+            }
+            set(i, time, seq, type, subject);
+        }
+
+        private static boolean less(long t1, long s1, long t2, long s2) { return t1 < t2 || (t1 == t2 && s1 < s2); }
+        private void move(int from, int to) { set(to, times[from], order[from], types[from], subjects[from]); }
+        private void set(int i, long time, long seq, int type, int subject) {
+            times[i] = time;
+            order[i] = seq;
+            types[i] = type;
+            subjects[i] = subject;
+        }
+        private void grow() {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            order = Arrays.copyOf(order, capacity);
+            types = Arrays.copyOf(types, capacity);
+            subjects = Arrays.copyOf(subjects, capacity);
+        }
+    }
+}
+
+// Parallel variant of SimulationEngine. Each Enclosure, Shop and the Hospital is a shard with
+// its own event queue and random stream. Shards advance in lock-step windows of LOOKAHEAD
+// simulated millis; anything that crosses shards (a visitor walking to another building, an
+// animal sent to the Hospital) is a message stamped at least one window ahead, delivered at the
+// barrier. Changes to the shared Zoo graph are deferred to the barrier and applied in
+// (time, shard, sequence) order, so a seed produces the same day for any thread count.
+class ShardedSimulation {
+    private static final long MINUTE = 60_000L;
+    private static final long LOOKAHEAD = MINUTE;
+
+    private final Zoo zoo;
+    private final List<Shard> shards = new ArrayList<>();
+    private final List<Shard> enclosureShards = new ArrayList<>();
+    private final Map<Building, Shard> shardByBuilding = new HashMap<>();
+    private final List<Visitor> visitors = new ArrayList<>();
+    private final int parallelism;
+    private double meanArrivalGapMillis = 1_000;
+    private double sicknessChance = 0.01;
+    private EventSink events = EventSink.NONE;
+    private Shard entrance;
+    private Shard foodShop;
+    private Shard hospital;
+
+    public ShardedSimulation(Zoo zoo, long seed, int parallelism) {
+        this.zoo = zoo;
+        this.parallelism = parallelism;
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (Building b : zoo.getBuildings()) {
+            if (!(b instanceof Enclosure || b instanceof Shop || b instanceof Hospital)) continue;
+            Shard shard = new Shard(shards.size(), b, seeds.split());
+            shards.add(shard);
+            shardByBuilding.put(b, shard);
+            if (b instanceof Enclosure) enclosureShards.add(shard);
+        }
+        entrance = shardByBuilding.get(zoo.getTicketShop());
+        foodShop = shardByBuilding.get(zoo.getFoodShop());
+        hospital = shardByBuilding.get(zoo.getHospital());
+        if (entrance == null) throw new IllegalStateException("The zoo needs a Ticket Shop to admit visitors");
+        for (Person p : zoo.getPeople()) {
+            Shard home = shardByBuilding.get(p.getLocation());
+            if (p instanceof Handler && home != null) home.handlers.add((Handler) p);
+        }
+    }
+
+    public ShardedSimulation visitorsPerHour(double rate) { this.meanArrivalGapMillis = 3_600_000.0 / rate; return this; }
+    public ShardedSimulation sicknessChance(double chance) { this.sicknessChance = chance; return this; }
+    // Shards emit concurrently, so a text sink sees windows interleaved; the default drops everything.
+    public ShardedSimulation events(EventSink sink) { this.events = sink; return this; }
+
+    public SimulationReport run(long durationMillis) {
+        scheduleOpening();
+        List<Callable<Void>> steps = new ArrayList<>();
+        long[] windowEnd = new long[1];
+        for (Shard shard : shards) steps.add(() -> {
+            EventSink previous = ZooEvents.bind(events);
+            try {
+                shard.runUntil(windowEnd[0], durationMillis);
+            } finally {
+                ZooEvents.bind(previous);
+            }
+            return null;
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        long started = System.nanoTime();
+        try {
+            for (long start = 0; start <= durationMillis; start += LOOKAHEAD) {
+                windowEnd[0] = Math.min(start + LOOKAHEAD, durationMillis + 1);
+                for (Future<Void> f : pool.invokeAll(steps)) f.get();
+                barrier();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Simulation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shard failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        long[] processed = new long[SimulationEngine.EventType.values().length];
+        long revenue = 0;
+        for (Shard shard : shards) {
+            for (int i = 0; i < processed.length; i++) processed[i] += shard.processed[i];
+            revenue += shard.revenueCents;
+        }
+        return new SimulationReport(processed, System.nanoTime() - started, durationMillis, revenue, visitors.size());
+    }
+
+    private void scheduleOpening() {
+        zoo.setOpen(true);
+        entrance.schedule(entrance.nextArrivalGap(), SimulationEngine.EventType.VISITOR_ARRIVAL, null);
+        for (Shard shard : enclosureShards) {
+            for (Handler h : shard.handlers) {
+                shard.schedule(shard.random.nextLong(30 * MINUTE), SimulationEngine.EventType.FEEDING, h);
+                shard.schedule(shard.random.nextLong(60 * MINUTE), SimulationEngine.EventType.EXERCISE, h);
+            }
+        }
+        if (hospital != null) hospital.schedule(60 * MINUTE, SimulationEngine.EventType.VET_ROUND, null);
+    }
+
+    // Single-threaded: every shard is parked between windows.
+    private void barrier() {
+        List<ShardEvent> effects = new ArrayList<>();
+        for (Shard shard : shards) {
+            for (ShardEvent message : shard.outbox) message.target.queue.add(message);
+            shard.outbox.clear();
+            effects.addAll(shard.effects);
+            shard.effects.clear();
+        }
+        effects.sort(ShardEvent.ORDER);
+        for (ShardEvent effect : effects) ((Runnable) effect.subject).run();
+    }
+
+    private static class ShardEvent {
+        static final Comparator<ShardEvent> ORDER = Comparator.<ShardEvent>comparingLong(e -> e.time)
+                .thenComparingInt(e -> e.origin)
+                .thenComparingLong(e -> e.seq);
+        final long time;
+        final int origin;
+        final long seq;
+        final SimulationEngine.EventType type;
+        final Object subject;
+        Shard target;
+
+        ShardEvent(long time, int origin, long seq, SimulationEngine.EventType type, Object subject) {
+            this.time = time;
+            this.origin = origin;
+            this.seq = seq;
+            this.type = type;
+            this.subject = subject;
+        }
+    }
+
+    private class Shard {
+        final int id;
+        final Building building;
+        final SplittableRandom random;
+        final PriorityQueue<ShardEvent> queue = new PriorityQueue<>(ShardEvent.ORDER);
+        final List<ShardEvent> outbox = new ArrayList<>();
+        final List<ShardEvent> effects = new ArrayList<>();
+        final List<Handler> handlers = new ArrayList<>();
+        final long[] processed = new long[SimulationEngine.EventType.values().length];
+        long revenueCents;
+        long now;
+        long seq;
+
+        Shard(int id, Building building, SplittableRandom random) {
+            this.id = id;
+            this.building = building;
+            this.random = random;
+        }
+
+        void schedule(long at, SimulationEngine.EventType type, Object subject) {
+            queue.add(new ShardEvent(at, id, seq++, type, subject));
+        }
+        void send(Shard target, long at, SimulationEngine.EventType type, Object subject) {
+            if (target == this) {
+                schedule(at, type, subject);
+                return;
+            }
+            ShardEvent message = new ShardEvent(Math.max(at, now + LOOKAHEAD), id, seq++, type, subject);
+            message.target = target;
+            outbox.add(message);
+        }
+        void defer(Runnable effect) { effects.add(new ShardEvent(now, id, seq++, null, effect)); }
+
+        void runUntil(long windowEnd, long closing) {
+            while (!queue.isEmpty() && queue.peek().time < windowEnd) {
+                ShardEvent event = queue.poll();
+                now = event.time;
+                processed[event.type.ordinal()]++;
+                dispatch(event.type, event.subject, closing);
+            }
+        }
+
+        private void dispatch(SimulationEngine.EventType type, Object subject, long closing) {
+            switch (type) {
+                case VISITOR_ARRIVAL: {
+                    Visitor visitor = new Visitor("Visitor-" + visitors.size(), building);
+                    visitor.setAge(random.nextInt(1, 90));
+                    visitors.add(visitor);
+                    schedule(now + 1 + random.nextLong(2 * MINUTE), SimulationEngine.EventType.TICKET_SALE, visitor);
+                    schedule(now + nextArrivalGap(), SimulationEngine.EventType.VISITOR_ARRIVAL, null);
+                    break;
+                }
+                case TICKET_SALE: {
+                    Visitor visitor = (Visitor) subject;
+                    String code = zoo.issueTicket();
+                    visitor.setTicketCode(code);
+                    zoo.addPerson(visitor);
+                    if (zoo.redeemTicket(code)) nextActivity(visitor);
+                    break;
+                }
+                case ENCLOSURE_VISIT: {
+                    Visitor visitor = (Visitor) subject;
+                    visitor.goTo(building);
+                    List<Animal> animals = zoo.getAnimalsInEnclosure((Enclosure) building);
+                    if (!animals.isEmpty()) animals.get(random.nextInt(animals.size())).makeSound();
+                    nextActivity(visitor);
+                    break;
+                }
+                case SHOP_PURCHASE: {
+                    Visitor visitor = (Visitor) subject;
+                    visitor.goTo(building);
+                    List<Product> products = ((Shop) building).getProducts();
+                    List<Product> cart = new ArrayList<>(3);
+                    for (int items = products.isEmpty() ? 0 : 1 + random.nextInt(3); items > 0; items--) cart.add(products.get(random.nextInt(products.size())));
+                    if (!cart.isEmpty()) {
+                        Receipt receipt = ((Shop) building).checkout(visitor, cart);
+                        if (receipt.isPaid()) revenueCents += receipt.getTotalCents();
+                    }
+                    nextActivity(visitor);
+                    break;
+                }
+                case VISITOR_DEPARTURE:
+                    ((Visitor) subject).leaveZoo();
+                    break;
+                case FEEDING:
+                case EXERCISE: {
+                    Handler handler = (Handler) subject;
+                    List<Animal> animals = zoo.getAnimalsInEnclosure((Enclosure) building);
+                    for (int i = 0; i < animals.size(); i++) {
+                        Animal animal = animals.get(i);
+                        if (type == SimulationEngine.EventType.FEEDING) handler.feed(animal);
+                        else handler.exercise(animal);
+                        if (hospital != null && random.nextDouble() < sicknessChance) {
+                            send(hospital, now + LOOKAHEAD, SimulationEngine.EventType.HOSPITAL_ADMISSION, new Admission(handler, animal));
+                        }
+                    }
+                    schedule(now + (type == SimulationEngine.EventType.FEEDING ? 4 * 60 : 3 * 60) * MINUTE, type, handler);
+                    break;
+                }
+                case HOSPITAL_ADMISSION: {
+                    Admission admission = (Admission) subject;
+                    defer(() -> {
+                        if (admission.animal.getLocation() != building) admission.handler.examine(admission.animal, zoo);
+                    });
+                    break;
+                }
+                case VET_ROUND: {
+                    Veterinarian vet = zoo.getVeterinarian();
+                    if (vet != null) defer(() -> vet.healAll((Hospital) building));
+                    if (now + 60 * MINUTE <= closing) schedule(now + 60 * MINUTE, SimulationEngine.EventType.VET_ROUND, null);
+                    break;
+                }
+            }
+        }
+
+        private void nextActivity(Visitor visitor) {
+            long at = now + MINUTE + random.nextLong(20 * MINUTE);
+            int roll = random.nextInt(10);
+            if (roll < 6 && !enclosureShards.isEmpty()) {
+                send(enclosureShards.get(random.nextInt(enclosureShards.size())), at, SimulationEngine.EventType.ENCLOSURE_VISIT, visitor);
+            } else if (roll < 9 && foodShop != null) {
+                send(foodShop, at, SimulationEngine.EventType.SHOP_PURCHASE, visitor);
+            } else {
+                schedule(at, SimulationEngine.EventType.VISITOR_DEPARTURE, visitor);
+            }
+        }
+
+        long nextArrivalGap() {
+            return 1 + (long) (-Math.log(1 - random.nextDouble()) * meanArrivalGapMillis);
+        }
+    }
+
+    private static class Admission {
+        final Handler handler;
+        final Animal animal;
+        Admission(Handler handler, Animal animal) { this.handler = handler; this.animal = animal; }
+    }
+
+    // Usage: java -cp target/classes org.example.ShardedSimulation [seed] [visitorsPerHour] [hours] [threads]
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42L;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 100_000;
+        long hours = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Zoo zoo = new Zoo();
+        zoo.initializeDefaultState();
+        zoo.setTicketCodeGenerator(new SequenceTicketCodeGenerator(seed));
+        SimulationReport report = new ShardedSimulation(zoo, seed, threads).visitorsPerHour(rate).run(hours * 60 * MINUTE);
+        report.print(System.out);
+    }
+}
+
+class SimulationReport {
+    private final long[] processed;
+    private final long elapsedNanos;
+    private final long simulatedMillis;
+    private final long revenueCents;
+    private final int visitors;
+
+    SimulationReport(long[] processed, long elapsedNanos, long simulatedMillis, long revenueCents, int visitors) {
+        this.processed = processed;
+        this.elapsedNanos = elapsedNanos;
+        this.simulatedMillis = simulatedMillis;
+        this.revenueCents = revenueCents;
+        this.visitors = visitors;
+    }
+
+    public long getEventCount() { return Arrays.stream(processed).sum(); }
+    public long getEventCount(SimulationEngine.EventType type) { return processed[type.ordinal()]; }
+    public long getRevenueCents() { return revenueCents; }
+    public int getVisitors() { return visitors; }
+    public double getEventsPerSecond() { return getEventCount() / (elapsedNanos / 1e9); }
+
+    public void print(PrintStream out) {
+        out.println("=== Simulation Report ===");
+        out.printf("Simulated time: %.1f h, visitors: %,d%n", simulatedMillis / 3_600_000.0, visitors);
+        for (SimulationEngine.EventType type : SimulationEngine.EventType.values()) {
+            out.printf("  %-20s %,12d%n", type, processed[type.ordinal()]);
+        }
+        out.printf("Shop revenue: P%d.%02d%n", revenueCents / 100, revenueCents % 100);
+        out.printf("%,d events in %.2f s (%,.0f events/s)%n", getEventCount(), elapsedNanos / 1e9, getEventsPerSecond());
+    }
+}
+
+// Open-loop load generator: replays scripted visitor and handler sessions through the real
+// menu modules at a fixed request rate. Latencies are measured from each request's intended
+// start, not from when it actually started, so a stall in the system under test shows up
+// in the percentiles instead of quietly slowing the generator down (coordinated omission).
+class LoadGenerator {
+    enum Curve {
+        CONSTANT, RAMP, WAVE;
+
+        // Request rate at fraction f of the run, as a multiple of the configured rate.
+        double factor(double f) {
+            switch (this) {
+                case RAMP: return Math.max(0.05, f);
+                case WAVE: return 1 + 0.5 * Math.sin(2 * Math.PI * 4 * f);
+                default: return 1;
+            }
+        }
+    }
+
+    static final String[] OPERATIONS = { "journey", "ticket", "entry", "enclosure", "shop", "hospital", "leave", "care-round" };
+    private static final int[][] AGE_RANGES = { { 0, 5 }, { 6, 17 }, { 18, 59 }, { 60, 90 } };
+    private final Zoo zoo;
+    private final SplittableRandom random;
+    private double requestsPerSecond = 100;
+    private Duration duration = Duration.ofSeconds(10);
+    private Curve curve = Curve.CONSTANT;
+    private int[] ageMix = { 10, 20, 55, 15 };
+    private double shopChance = 0.5;
+    private int maxBasket = 3;
+    private double handlerShare = 0.02;
+
+    LoadGenerator(Zoo zoo, long seed) {
+        this.zoo = zoo;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public LoadGenerator requestsPerSecond(double rate) { this.requestsPerSecond = rate; return this; }
+    public LoadGenerator duration(Duration duration) { this.duration = duration; return this; }
+    public LoadGenerator curve(Curve curve) { this.curve = curve; return this; }
+    // Relative weights of Child, Student, Adult and Senior visitors.
+    public LoadGenerator ageMix(int child, int student, int adult, int senior) { this.ageMix = new int[] { child, student, adult, senior }; return this; }
+    public LoadGenerator basket(double shopChance, int maxItems) { this.shopChance = shopChance; this.maxBasket = maxItems; return this; }
+    public LoadGenerator handlerShare(double share) { this.handlerShare = share; return this; }
+
+    public LoadTestReport run() throws InterruptedException {
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        for (String op : OPERATIONS) latencies.put(op, new LatencyHistogram());
+        AtomicLongArray ticketCounts = new AtomicLongArray(TicketingModule.TICKET_TYPES.length);
+        LongAdder ticketCents = new LongAdder();
+        LongAdder failed = new LongAdder();
+        List<Handler> handlers = new ArrayList<>();
+        for (Person p : zoo.getPeople()) {
+            if (p instanceof Handler && p.getLocation() instanceof Enclosure) handlers.add((Handler) p);
+        }
+        EventSink previous = ZooEvents.getGlobalSink();
+        ZooEvents.setGlobalSink(EventSink.NONE);
+        long started = System.nanoTime();
+        long length = duration.toNanos();
+        long sent = 0;
+        try (ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long offset = 0; offset < length; offset += (long) (1e9 / (requestsPerSecond * curve.factor((double) offset / length)))) {
+                long intended = started + offset;
+                SplittableRandom r = random.split();
+                Runnable request;
+                if (!handlers.isEmpty() && r.nextDouble() < handlerShare) {
+                    Handler handler = handlers.get(r.nextInt(handlers.size()));
+                    request = () -> {
+                        ScriptedSessionIO io = new ScriptedSessionIO(latencies, intended, List.of(new Step("care-round", "R", "0")));
+                        new HandlerModule(handler, zoo, io).start();
+                        io.finish();
+                    };
+                } else {
+                    int type = pick(r, ageMix);
+                    int[] ages = AGE_RANGES[type];
+                    List<Step> script = journey(r, ages[0] + r.nextInt(ages[1] - ages[0] + 1));
+                    request = () -> {
+                        ScriptedSessionIO io = new ScriptedSessionIO(latencies, intended, script);
+                        try {
+                            Main.runVisitorSession(zoo, io);
+                        } finally {
+                            // Only tickets actually sold count: a closed park or a full slot sells none.
+                            if (io.getTicketCode() != null) {
+                                ticketCounts.incrementAndGet(type);
+                                ticketCents.add(Math.round(TicketingModule.getTicketPrice(TicketingModule.TICKET_TYPES[type]) * 100));
+                            }
+                        }
+                        io.finish();
+                        latencies.get("journey").record(System.nanoTime() - intended);
+                    };
+                }
+                LockSupport.parkNanos(intended - System.nanoTime());
+                sessions.submit(() -> {
+                    try {
+                        request.run();
+                    } catch (RuntimeException e) {
+                        failed.increment();
+                    }
+                });
+                sent++;
+            }
+        } finally {
+            ZooEvents.setGlobalSink(previous);
+        }
+        Map<String, LatencyHistogram.Summary> summaries = new LinkedHashMap<>();
+        latencies.forEach((op, h) -> summaries.put(op, h.summary()));
+        long[] tickets = new long[ticketCounts.length()];
+        for (int t = 0; t < tickets.length; t++) tickets[t] = ticketCounts.get(t);
+        return new LoadTestReport(sent, failed.sum(), System.nanoTime() - started, summaries, TicketingModule.TICKET_TYPES, tickets, ticketCents.sum());
+    }
+
+    // Buy a ticket, enter, then a random walk round the zoo before leaving.
+    private List<Step> journey(SplittableRandom r, int age) {
+        List<Step> steps = new ArrayList<>();
+        steps.add(new Step("ticket", "yes", "Visitor " + Long.toString(r.nextLong() & Long.MAX_VALUE, 36), Integer.toString(age), "yes"));
+        steps.add(new Step("entry", ScriptedSessionIO.TICKET));
+        int enclosures = zoo.getEnclosures().size();
+        for (int i = r.nextInt(4); i > 0 && enclosures > 0; i--) steps.add(new Step("enclosure", "1", Integer.toString(1 + r.nextInt(enclosures))));
+        Shop shop = zoo.getFoodShop();
+        if (shop != null && !shop.getProducts().isEmpty() && r.nextDouble() < shopChance) {
+            StringBuilder basket = new StringBuilder();
+            for (int i = 1 + r.nextInt(maxBasket); i > 0; i--) basket.append(1 + r.nextInt(shop.getProducts().size())).append(' ');
+            steps.add(new Step("shop", "2", basket.toString().trim(), "0"));
+        }
+        if (zoo.getHospital() != null && r.nextInt(10) == 0) steps.add(new Step("hospital", "3", "1", "4"));
+        steps.add(new Step("leave", "4"));
+        return steps;
+    }
+
+    private static int pick(SplittableRandom r, int[] weights) {
+        int roll = r.nextInt(Arrays.stream(weights).sum());
+        for (int i = 0; i < weights.length; i++) {
+            if ((roll -= weights[i]) < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    static final class Step {
+        final String operation;
+        final String[] answers;
+        Step(String operation, String... answers) { this.operation = operation; this.answers = answers; }
+    }
+
+    // Answers prompts from a script and times each step: a step runs from its first answer until
+    // the next step's first answer is asked for. The first step is timed from the intended start.
+    // Yes/no follow-ups that depend on zoo state (feeding, checkout) are answered without using
+    // up the script, and the ticket code is read back from the module's own output.
+    static final class ScriptedSessionIO implements SessionIO {
+        static final String TICKET = "${ticket}";
+        private static final String TICKET_PREFIX = "Your ticket code is: ";
+        private final Map<String, LatencyHistogram> latencies;
+        private final long intended;
+        private final List<Step> script;
+        private int step = -1;
+        private int answer;
+        private long stepStarted;
+        private String prompt = "";
+        private String ticketCode;
+
+        ScriptedSessionIO(Map<String, LatencyHistogram> latencies, long intended, List<Step> script) {
+            this.latencies = latencies;
+            this.intended = intended;
+            this.script = script;
+        }
+
+        @Override
+        public String readLine() {
+            if (prompt.startsWith("Would you like to feed")) return "yes";
+            if (prompt.startsWith("Proceed to checkout")) return "yes";
+            if (step < 0 || answer == script.get(step).answers.length) {
+                long now = System.nanoTime();
+                if (step >= 0) latencies.get(script.get(step).operation).record(now - stepStarted);
+                if (++step == script.size()) throw new SessionClosedException("End of script");
+                stepStarted = step == 0 ? intended : now;
+                answer = 0;
+            }
+            String line = script.get(step).answers[answer++];
+            return line.equals(TICKET) ? ticketCode : line;
+        }
+        @Override public void print(String text) { prompt = text; }
+        @Override public void println(String text) {
+            if (text.startsWith(TICKET_PREFIX)) ticketCode = text.substring(TICKET_PREFIX.length());
+        }
+        @Override public void printf(String format, Object... args) { }
+        @Override public void write(byte[] utf8) { prompt = ""; }
+        // The code of the ticket this session bought, or null if it did not get one.
+        String getTicketCode() { return ticketCode; }
+
+        // Closes the step still running when the module returned.
+        void finish() {
+            if (step >= 0 && step < script.size()) latencies.get(script.get(step).operation).record(System.nanoTime() - stepStarted);
+        }
+    }
+
+    // Usage: java -cp target/classes org.example.LoadGenerator [requestsPerSecond] [seconds] [constant|ramp|wave] [seed]
+    public static void main(String[] args) throws InterruptedException {
+        double rate = args.length > 0 ? Double.parseDouble(args[0]) : 1_000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        Curve curve = args.length > 2 ? Curve.valueOf(args[2].toUpperCase(Locale.ROOT)) : Curve.CONSTANT;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+
+        Zoo zoo = new Zoo();
+        zoo.initializeDefaultState();
+        zoo.setOpen(true);
+        LoadTestReport report = new LoadGenerator(zoo, seed).requestsPerSecond(rate).duration(Duration.ofSeconds(seconds)).curve(curve).run();
+        report.print(System.out);
+    }
+}
+
+class LoadTestReport {
+    private final long requests;
+    private final long failed;
+    private final long elapsedNanos;
+    private final Map<String, LatencyHistogram.Summary> latencies;
+    private final String[] ticketTypes;
+    private final long[] tickets;
+    private final long ticketCents;
+
+    LoadTestReport(long requests, long failed, long elapsedNanos, Map<String, LatencyHistogram.Summary> latencies,
+               String[] ticketTypes, long[] tickets, long ticketCents) {
+        this.requests = requests;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+        this.ticketTypes = ticketTypes;
+        this.tickets = tickets;
+        this.ticketCents = ticketCents;
+    }
+
+    public long getRequests() { return requests; }
+    public long getFailed() { return failed; }
+    public LatencyHistogram.Summary getLatency(String operation) { return latencies.get(operation); }
+
+    public void print(PrintStream out) {
+        out.println("=== Load Test Report ===");
+        out.printf("%,d requests in %.2f s (%,.0f/s), %,d failed%n", requests, elapsedNanos / 1e9, requests / (elapsedNanos / 1e9), failed);
+        out.printf("  %-12s %10s %10s %10s %10s %10s%n", "operation", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        latencies.forEach((op, s) -> {
+            if (s.count > 0) out.printf("  %-12s %,10d %10.3f %10.3f %10.3f %10.3f%n", op, s.count, s.p50Nanos / 1e6, s.p99Nanos / 1e6, s.p999Nanos / 1e6, s.maxNanos / 1e6);
+        });
+        for (int i = 0; i < ticketTypes.length; i++) out.printf("  %-8s tickets %,10d%n", ticketTypes[i], tickets[i]);
+        out.printf("Ticket revenue: P%d.%02d%n", ticketCents / 100, ticketCents % 100);
+    }
+}
+
+final class Species {
+    private static final Map<String, BiFunction<String, Building, Animal>> FACTORIES = new LinkedHashMap<>();
+    static {
+        FACTORIES.put("Tiger", Tiger::new);
+        FACTORIES.put("Lion", Lion::new);
+        FACTORIES.put("Cheetah", Cheetah::new);
+        FACTORIES.put("Rhino", Rhino::new);
+        FACTORIES.put("Elephant", Elephant::new);
+        FACTORIES.put("Hippo", Hippo::new);
+        FACTORIES.put("Parrot", Parrot::new);
+        FACTORIES.put("Falcon", Falcon::new);
+        FACTORIES.put("Owl", Owl::new);
+    }
+
+    private Species() { }
+
+    static Animal create(String species, String name, Building location) {
+        BiFunction<String, Building, Animal> factory = FACTORIES.get(species);
+        if (factory == null) throw new IllegalArgumentException("Unknown species: " + species);
+        return factory.apply(name, location);
+    }
+    private static final String[] NAMES = FACTORIES.keySet().toArray(new String[0]);
+    // One inert instance per species, asked for the species' text on behalf of store views.
+    private static final Animal[] PROTOTYPES = new Animal[NAMES.length];
+    static {
+        for (int i = 0; i < NAMES.length; i++) PROTOTYPES[i] = create(NAMES[i], NAMES[i], null);
+    }
+
+    static String of(Animal animal) { return animal.getSpecies(); }
+    static Collection<String> names() { return FACTORIES.keySet(); }
+    static int idOf(String species) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(species)) return i;
+        }
+        throw new IllegalArgumentException("Unknown species: " + species);
+    }
+    static String name(int id) { return NAMES[id]; }
+    static Animal prototype(int id) { return PROTOTYPES[id]; }
+}
+
+// Buffered little helper over a FileChannel; callers reserve space with ensure() first.
+class BinaryWriter implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    BinaryWriter(FileChannel channel, int bufferBytes) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+    }
+
+    BinaryWriter ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+        return this;
+    }
+    BinaryWriter putByte(int v) throws IOException { ensure(1).buffer.put((byte) v); return this; }
+    BinaryWriter putInt(int v) throws IOException { ensure(4).buffer.putInt(v); return this; }
+    BinaryWriter putLong(long v) throws IOException { ensure(8).buffer.putLong(v); return this; }
+    BinaryWriter putDouble(double v) throws IOException { ensure(8).buffer.putDouble(v); return this; }
+    BinaryWriter putString(String s) throws IOException {
+        if (s == null) return putInt(-1);
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        for (int off = 0; off < bytes.length; ) {
+            int n = Math.min(bytes.length - off, ensure(1).buffer.remaining());
+            buffer.put(bytes, off, n);
+            off += n;
+        }
+        return this;
+    }
+
+    static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+    void force() throws IOException {
+        flush();
+        channel.force(false);
+    }
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
+
+// Write-ahead log of Zoo mutations, one file per checkpoint generation. Records are buffered
+// and flushed by the persistence scheduler, so a crash can lose the last flush interval.
+// Every record is idempotent on replay because generations overlap their snapshot.
+class ZooJournal implements AutoCloseable {
+    static final byte TICKET_ISSUED = 1, TICKET_REDEEMED = 2, BUILDING_ADDED = 3, ANIMAL_ADDED = 4,
+            PERSON_ADDED = 5, STAFF_ASSIGNED = 6, ANIMAL_MOVED = 7, ANIMAL_HEALTH = 8,
+            ADMITTED = 9, DISCHARGED = 10, HEALED = 11, OPEN_CHANGED = 12, TICKET_BLOCK = 13, SALE = 14, DAY_ROW = 15,
+            PERSON_REMOVED = 16;
+    private static final int MAX_RECORD = 64 * 1024;
+    private BinaryWriter out;
+
+    ZooJournal(Path file) throws IOException { this.out = open(file); }
+
+    synchronized void ticketIssued(long key) { write(w -> w.putByte(TICKET_ISSUED).putLong(key)); }
+    synchronized void ticketRedeemed(long key) { write(w -> w.putByte(TICKET_REDEEMED).putLong(key)); }
+    synchronized void ticketBlockReserved(long reserved) { write(w -> w.putByte(TICKET_BLOCK).putLong(reserved)); }
+    synchronized void buildingAdded(Building b) { write(w -> ZooPersistence.writeBuilding(w.putByte(BUILDING_ADDED), b)); }
+    synchronized void animalAdded(Animal a) { write(w -> ZooPersistence.writeAnimal(w.putByte(ANIMAL_ADDED), a)); }
+    synchronized void personAdded(Person p) { write(w -> ZooPersistence.writePerson(w.putByte(PERSON_ADDED), p)); }
+    synchronized void personRemoved(Person p) { write(w -> w.putByte(PERSON_REMOVED).putInt(p.zooIndex)); }
+    synchronized void staffAssigned(Person p) { write(w -> w.putByte(STAFF_ASSIGNED).putInt(p.zooIndex)); }
+    synchronized void animalMoved(Animal a) { write(w -> w.putByte(ANIMAL_MOVED).putInt(a.zooIndex).putInt(ZooPersistence.indexOf(a.getLocation()))); }
+    synchronized void healthChanged(Animal a) { write(w -> w.putByte(ANIMAL_HEALTH).putInt(a.zooIndex).putByte(a.isHealthy() ? 1 : 0)); }
+    synchronized void admitted(Hospital h, Animal a) { write(w -> w.putByte(ADMITTED).putInt(h.zooIndex).putInt(a.zooIndex)); }
+    synchronized void discharged(Hospital h, Animal a) { write(w -> w.putByte(DISCHARGED).putInt(h.zooIndex).putInt(a.zooIndex)); }
+    synchronized void healed(Hospital h, long seq, long millis, Animal a, Veterinarian vet) {
+        write(w -> w.putByte(HEALED).putInt(h.zooIndex).putLong(seq).putLong(millis).putInt(a.zooIndex).putInt(vet == null ? -1 : vet.zooIndex));
+    }
+    synchronized void sold(Shop shop, long saleId, long millis, Person buyer, List<Product> lines, int[] quantities, long[] cents) {
+        List<Product> catalogue = shop.getProducts();
+        write(w -> {
+            w.putByte(SALE).putInt(shop.zooIndex).putLong(saleId).putLong(millis).putInt(buyer == null ? -1 : buyer.zooIndex).putInt(lines.size());
+            for (int i = 0; i < lines.size(); i++) w.putInt(catalogue.indexOf(lines.get(i))).putInt(quantities[i]).putLong(cents[i]);
+        });
+    }
+    synchronized void dayRow(long bookStart, long row, byte kind, int offset, int key, int amount) {
+        write(w -> w.putByte(DAY_ROW).putLong(bookStart).putLong(row).putByte(kind).putInt(offset).putInt(key).putInt(amount));
+    }
+    synchronized void openChanged(boolean open) { write(w -> w.putByte(OPEN_CHANGED).putByte(open ? 1 : 0)); }
+
+    synchronized void flush() throws IOException { out.flush(); }
+
+    // Starts the next generation; everything logged so far is flushed and synced first.
+    synchronized void rollTo(Path file) throws IOException {
+        out.force();
+        out.close();
+        out = open(file);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.force();
+        out.close();
+    }
+
+    private void write(Record record) {
+        try {
+            // Reserve the largest record up front so a record never straddles a flush mid-way.
+            out.ensure(MAX_RECORD);
+            record.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Write-ahead log append failed", e);
+        }
+    }
+
+    private static BinaryWriter open(Path file) throws IOException {
+        return new BinaryWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), 1 << 20);
+    }
+
+    private interface Record {
+        void writeTo(BinaryWriter w) throws IOException;
+    }
+}
+
+// Snapshot + write-ahead log for the whole Zoo graph. A checkpoint starts a new log generation
+// and then writes a full snapshot stamped with it. Restoring maps the snapshot and replays
+// every log of that generation or later. Anything the snapshot already holds is skipped.
+class ZooPersistence implements AutoCloseable {
+    private static final int MAGIC = 0x5A4F4F31; // "ZOO1"
+    // Version 2 stores prices as cents plus stock and sales totals; version 1 stored a double price.
+    // Version 3 adds the day books.
+    private static final int VERSION = 3;
+    private static final String SNAPSHOT = "zoo.snapshot";
+    private static final byte ENCLOSURE = 0, HOSPITAL = 1, TICKET_SHOP = 2, FOOD_SHOP = 3;
+    private static final byte MANAGER = 0, VETERINARIAN = 1, HANDLER = 2, VENDOR = 3, VISITOR = 4;
+
+    private final Path directory;
+    private long generation;
+    private Zoo zoo;
+    private ZooJournal journal;
+    private ScheduledExecutorService scheduler;
+
+    public ZooPersistence(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    // Returns false when there is nothing to restore.
+    public boolean restore(Zoo target) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) return false;
+        long started = System.nanoTime();
+        Restore state = new Restore(target);
+        long replayed = 0;
+        target.setRestoring(true);
+        try {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int version;
+                if (in.getInt() != MAGIC || (version = in.getInt()) < 1 || version > VERSION) throw new IOException("Unrecognised snapshot " + snapshot);
+                state.version = version;
+                generation = in.getLong();
+                state.readSnapshot(in);
+            }
+            for (Path wal : walFiles()) {
+                if (generationOf(wal) >= generation) replayed += state.replay(wal);
+            }
+        } finally {
+            target.setRestoring(false);
+        }
+        System.out.printf("Restored zoo state (%,d tickets, %,d animals, %,d people, %,d log records replayed) in %d ms%n",
+                target.getTicketRegistry().size(), target.getAnimals().size(), target.getPeople().size(), replayed,
+                (System.nanoTime() - started) / 1_000_000);
+        return true;
+    }
+
+    // Starts journaling the zoo and checkpoints it now and then every interval.
+    public synchronized void attach(Zoo target, Duration checkpointInterval) throws IOException {
+        this.zoo = target;
+        this.journal = new ZooJournal(walPath(generation + 1));
+        generation++;
+        writeSnapshot();
+        target.setJournal(journal);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "zoo-persistence");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, 200, 200, TimeUnit.MILLISECONDS);
+        long every = checkpointInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::checkpointQuietly, every, every, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void checkpoint() throws IOException {
+        journal.rollTo(walPath(generation + 1));
+        generation++;
+        writeSnapshot();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (scheduler != null) scheduler.shutdownNow();
+        if (journal == null) return;
+        checkpoint();
+        zoo.setJournal(null);
+        journal.close();
+        journal = null;
+    }
+
+    private void flushQuietly() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            System.err.println("Write-ahead log flush failed: " + e.getMessage());
+        }
+    }
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path tmp = directory.resolve(SNAPSHOT + ".tmp");
+        try (BinaryWriter w = new BinaryWriter(FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 20)) {
+            w.putInt(MAGIC).putInt(VERSION).putLong(generation);
+            w.putByte(zoo.isOpen() ? 1 : 0);
+
+            List<Building> buildings = zoo.getBuildings();
+            w.putInt(buildings.size());
+            for (Building b : buildings) {
+                Lock checkouts = b instanceof Shop ? ((Shop) b).checkpointLock() : null;
+                if (checkouts != null) checkouts.lock();
+                try {
+                    writeBuilding(w, b);
+                } finally {
+                    if (checkouts != null) checkouts.unlock();
+                }
+            }
+
+            Collection<Animal> animals = zoo.getAnimals();
+            List<Animal> animalList = new ArrayList<>(animals);
+            Map<Integer, Integer> animalIndexById = new HashMap<>();
+            w.putInt(animalList.size());
+            for (Animal a : animalList) {
+                writeAnimal(w, a);
+                animalIndexById.put(a.getId(), a.zooIndex);
+            }
+
+            List<Person> people = new ArrayList<>(zoo.getPeople());
+            Map<Integer, Integer> vetIndexById = new HashMap<>();
+            w.putInt(people.size());
+            for (Person p : people) {
+                writePerson(w, p);
+                if (p instanceof Veterinarian) vetIndexById.put(p.getId(), p.zooIndex);
+            }
+            w.putInt(zoo.getManager() == null ? -1 : zoo.getManager().zooIndex);
+            w.putInt(zoo.getVeterinarian() == null ? -1 : zoo.getVeterinarian().zooIndex);
+
+            TicketRegistry tickets = zoo.getTicketRegistry();
+            long expiresAt = tickets.getExpiresAt();
+            long[] slots = tickets.exportSlots();
+            w.putLong(expiresAt).putInt(slots.length);
+            for (long slot : slots) w.putLong(slot);
+            TicketCodeGenerator generator = zoo.getTicketCodeGenerator();
+            if (generator instanceof SequenceTicketCodeGenerator) {
+                SequenceTicketCodeGenerator sequence = (SequenceTicketCodeGenerator) generator;
+                w.putByte(1).putLong(sequence.getSalt()).putLong(sequence.getReserved());
+            } else {
+                w.putByte(0);
+            }
+
+            for (Building b : buildings) {
+                if (!(b instanceof Hospital)) continue;
+                Hospital hospital = (Hospital) b;
+                List<Animal> ward = hospital.getSickAnimals();
+                w.putInt(b.zooIndex).putInt(ward.size());
+                for (Animal a : ward) w.putInt(a.zooIndex);
+                List<long[]> recent = new ArrayList<>();
+                hospital.getHealedLog().forEachRecent((seq, millis, animalId, vetId) -> recent.add(new long[] {
+                        seq, millis, animalIndexById.getOrDefault(animalId, -1), vetIndexById.getOrDefault(vetId, -1)}));
+                w.putInt(recent.size());
+                for (long[] r : recent) w.putLong(r[0]).putLong(r[1]).putInt((int) r[2]).putInt((int) r[3]);
+            }
+            w.putInt(-1);
+
+            DayBook previous = zoo.getPreviousDay();
+            List<DayBook> books = previous == null ? List.of(zoo.getDayBook()) : List.of(previous, zoo.getDayBook());
+            w.putInt(books.size());
+            for (DayBook book : books) {
+                w.putLong(book.getStartMillis()).putLong(book.size());
+                book.forEachRow((row, kind, offset, key, amount) -> w.putByte(kind).putInt(offset).putInt(key).putInt(amount));
+            }
+            w.force();
+        }
+        Files.move(tmp, directory.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Path wal : walFiles()) {
+            if (generationOf(wal) < generation) Files.deleteIfExists(wal);
+        }
+    }
+
+    static int indexOf(Building b) { return b == null ? -1 : b.zooIndex; }
+
+    static BinaryWriter writeBuilding(BinaryWriter w, Building b) throws IOException {
+        byte kind = b instanceof Enclosure ? ENCLOSURE : b instanceof Hospital ? HOSPITAL
+                : b instanceof TicketShop ? TICKET_SHOP : b instanceof FoodShop ? FOOD_SHOP : -1;
+        if (kind < 0) throw new IllegalStateException("Cannot persist building type " + b.getClass().getSimpleName());
+        w.putInt(b.zooIndex).putByte(kind).putString(b.getName());
+        if (b instanceof Shop) {
+            List<Product> products = ((Shop) b).getProducts();
+            w.putInt(products.size());
+            for (Product p : products) {
+                w.putString(p.getName()).putLong(p.getPriceCents()).putInt(p.getStock()).putLong(p.getUnitsSold()).putLong(p.getRevenueCents());
+            }
+            // Logged sales numbered below this are already in the totals above.
+            w.putLong(((Shop) b).getSales().size());
+        }
+        return w;
+    }
+    static BinaryWriter writeAnimal(BinaryWriter w, Animal a) throws IOException {
+        return w.putInt(a.zooIndex).putString(Species.of(a)).putString(a.getName()).putByte(a.isHealthy() ? 1 : 0)
+                .putInt(indexOf(a.getLocation())).putInt(indexOf(a.getOriginalEnclosure()));
+    }
+    static BinaryWriter writePerson(BinaryWriter w, Person p) throws IOException {
+        byte role = p instanceof Manager ? MANAGER : p instanceof Veterinarian ? VETERINARIAN
+                : p instanceof Handler ? HANDLER : p instanceof Vendor ? VENDOR : VISITOR;
+        w.putInt(p.zooIndex).putByte(role).putString(p.getName()).putInt(indexOf(p.getLocation()));
+        if (p instanceof Visitor) w.putInt(((Visitor) p).getAge()).putString(((Visitor) p).getTicketCode());
+        return w;
+    }
+
+    private List<Path> walFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().matches("zoo-\\d+\\.wal"))
+                    .sorted(Comparator.comparingLong(ZooPersistence::generationOf))
+                    .collect(Collectors.toList());
+        }
+    }
+    private Path walPath(long gen) { return directory.resolve(String.format("zoo-%012d.wal", gen)); }
+    private static long generationOf(Path wal) {
+        String name = wal.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+
+    // Rebuilds objects by their stable index; shared by snapshot loading and log replay.
+    private static class Restore {
+        final Zoo zoo;
+        final Map<Integer, Building> buildings = new HashMap<>();
+        final Map<Integer, Animal> animals = new HashMap<>();
+        final Map<Integer, Person> people = new HashMap<>();
+        final Map<Integer, Long> salesCovered = new HashMap<>();
+        // Applies to the snapshot and to the logs replayed on top of it.
+        int version = VERSION;
+
+        Restore(Zoo zoo) { this.zoo = zoo; }
+
+        void readSnapshot(ByteBuffer in) {
+            boolean open = in.get() == 1;
+            for (int n = in.getInt(); n > 0; n--) addBuilding(in);
+
+            int animalCount = in.getInt();
+            List<Animal> batch = new ArrayList<>(animalCount);
+            for (int n = animalCount; n > 0; n--) {
+                Animal a = readAnimal(in);
+                if (a != null) batch.add(a);
+            }
+            zoo.addAnimals(batch);
+
+            for (int n = in.getInt(); n > 0; n--) addPerson(in);
+            assignStaff(in.getInt());
+            assignStaff(in.getInt());
+
+            long expiresAt = in.getLong();
+            long[] slots = new long[in.getInt()];
+            in.asLongBuffer().get(slots);
+            in.position(in.position() + slots.length * 8);
+            zoo.getTicketRegistry().importSlots(slots, expiresAt);
+            if (in.get() == 1) {
+                long salt = in.getLong();
+                // The snapshot is one park's, so its generator resumes in the park being restored.
+                zoo.setTicketCodeGenerator(new SequenceTicketCodeGenerator(salt, zoo.getParkId(), in.getLong()));
+            }
+
+            for (int index = in.getInt(); index >= 0; index = in.getInt()) {
+                Hospital hospital = (Hospital) buildings.get(index);
+                for (int n = in.getInt(); n > 0; n--) {
+                    Animal animal = animals.get(in.getInt());
+                    if (animal != null) hospital.admitAnimal(animal);
+                }
+                for (int n = in.getInt(); n > 0; n--) {
+                    long seq = in.getLong(), millis = in.getLong();
+                    Animal animal = animals.get(in.getInt());
+                    Person vet = people.get(in.getInt());
+                    if (animal != null) hospital.getHealedLog().restore(seq, animal, vet instanceof Veterinarian ? (Veterinarian) vet : null, millis);
+                }
+            }
+            if (version >= 3) {
+                for (int books = in.getInt(); books > 0; books--) {
+                    DayBook book = zoo.dayBookFor(in.getLong());
+                    for (long row = 0, rows = in.getLong(); row < rows; row++) {
+                        byte kind = in.get();
+                        int offset = in.getInt(), key = in.getInt(), amount = in.getInt();
+                        if (book != null) book.restore(row, kind, offset, key, amount);
+                    }
+                }
+            }
+            zoo.setOpen(open);
+        }
+
+        long replay(Path wal) throws IOException {
+            long records = 0;
+            try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.READ)) {
+                ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (in.hasRemaining()) {
+                    int start = in.position();
+                    try {
+                        apply(in.get(), in);
+                        records++;
+                    } catch (BufferUnderflowException e) {
+                        in.position(start); // torn final record from a crash
+                        break;
+                    }
+                }
+            }
+            return records;
+        }
+
+        private void apply(byte type, ByteBuffer in) {
+            switch (type) {
+                case ZooJournal.TICKET_ISSUED: zoo.getTicketRegistry().issueKey(in.getLong()); break;
+                case ZooJournal.TICKET_REDEEMED: zoo.getTicketRegistry().redeemKey(in.getLong()); break;
+                case ZooJournal.TICKET_BLOCK: {
+                    long reserved = in.getLong();
+                    TicketCodeGenerator generator = zoo.getTicketCodeGenerator();
+                    if (generator instanceof SequenceTicketCodeGenerator) ((SequenceTicketCodeGenerator) generator).advanceTo(reserved);
+                    break;
+                }
+                case ZooJournal.BUILDING_ADDED: addBuilding(in); break;
+                case ZooJournal.ANIMAL_ADDED: {
+                    Animal a = readAnimal(in);
+                    if (a != null) zoo.addAnimal(a);
+                    break;
+                }
+                case ZooJournal.PERSON_ADDED: addPerson(in); break;
+                case ZooJournal.PERSON_REMOVED: {
+                    Person p = people.remove(in.getInt());
+                    if (p != null) zoo.removePerson(p);
+                    break;
+                }
+                case ZooJournal.STAFF_ASSIGNED: assignStaff(in.getInt()); break;
+                case ZooJournal.ANIMAL_MOVED: {
+                    Animal a = animals.get(in.getInt());
+                    Building to = buildings.get(in.getInt());
+                    if (a != null && a.getLocation() != to) a.setLocation(to);
+                    break;
+                }
+                case ZooJournal.ANIMAL_HEALTH: {
+                    Animal a = animals.get(in.getInt());
+                    boolean healthy = in.get() == 1;
+                    if (a != null && a.isHealthy() != healthy) a.setHealthy(healthy);
+                    break;
+                }
+                case ZooJournal.ADMITTED:
+                case ZooJournal.DISCHARGED: {
+                    Building hospital = buildings.get(in.getInt());
+                    Animal animal = animals.get(in.getInt());
+                    if (!(hospital instanceof Hospital) || animal == null) break;
+                    if (type == ZooJournal.ADMITTED) ((Hospital) hospital).admitAnimal(animal);
+                    else ((Hospital) hospital).dischargeAnimal(animal);
+                    break;
+                }
+                case ZooJournal.HEALED: {
+                    Hospital hospital = (Hospital) buildings.get(in.getInt());
+                    long seq = in.getLong(), millis = in.getLong();
+                    Animal animal = animals.get(in.getInt());
+                    Person vet = people.get(in.getInt());
+                    if (animal != null) hospital.getHealedLog().restore(seq, animal, vet instanceof Veterinarian ? (Veterinarian) vet : null, millis);
+                    break;
+                }
+                case ZooJournal.OPEN_CHANGED: zoo.setOpen(in.get() == 1); break;
+                case ZooJournal.SALE: {
+                    Building shop = buildings.get(in.getInt());
+                    long saleId = in.getLong(), millis = in.getLong();
+                    Person buyer = people.get(in.getInt());
+                    int n = in.getInt();
+                    List<Product> catalogue = shop instanceof Shop ? ((Shop) shop).getProducts() : List.of();
+                    List<Product> lines = new ArrayList<>(n);
+                    int[] quantities = new int[n];
+                    long[] cents = new long[n];
+                    for (int i = 0; i < n; i++) {
+                        int product = in.getInt();
+                        lines.add(product >= 0 && product < catalogue.size() ? catalogue.get(product) : null);
+                        quantities[i] = in.getInt();
+                        cents[i] = in.getLong();
+                    }
+                    if (!(shop instanceof Shop) || lines.contains(null) || saleId < salesCovered.getOrDefault(shop.zooIndex, 0L)) break;
+                    ((Shop) shop).restoreSale(millis, buyer == null ? -1 : buyer.getId(), lines, quantities, cents);
+                    break;
+                }
+                case ZooJournal.DAY_ROW: {
+                    DayBook book = zoo.dayBookFor(in.getLong());
+                    long row = in.getLong();
+                    byte kind = in.get();
+                    int offset = in.getInt(), key = in.getInt(), amount = in.getInt();
+                    if (book != null) book.restore(row, kind, offset, key, amount);
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown write-ahead log record " + type);
+            }
+        }
+
+        private void addBuilding(ByteBuffer in) {
+            int index = in.getInt();
+            byte kind = in.get();
+            String name = BinaryWriter.getString(in);
+            Building b;
+            switch (kind) {
+                case ENCLOSURE: b = new Enclosure(name); break;
+                case HOSPITAL: b = new Hospital(); break;
+                case TICKET_SHOP: b = new TicketShop(); break;
+                case FOOD_SHOP: b = new FoodShop(); break;
+                default: throw new IllegalStateException("Unknown building kind " + kind);
+            }
+            b.name = name;
+            if (b instanceof Shop) {
+                List<Product> products = new ArrayList<>();
+                long revenue = 0;
+                for (int n = in.getInt(); n > 0; n--) {
+                    String product = BinaryWriter.getString(in);
+                    if (version == 1) {
+                        products.add(new Product(product, in.getDouble()));
+                        continue;
+                    }
+                    Product p = new Product(product, in.getLong(), in.getInt());
+                    long units = in.getLong(), cents = in.getLong();
+                    p.recordSale(units, cents);
+                    revenue += cents;
+                    products.add(p);
+                }
+                long covered = version == 1 ? 0 : in.getLong();
+                if (buildings.containsKey(index)) return;
+                ((Shop) b).setProducts(products);
+                ((Shop) b).restoreRevenue(revenue);
+                salesCovered.put(index, covered);
+            }
+            if (buildings.containsKey(index)) return;
+            b.zooIndex = index;
+            buildings.put(index, b);
+            zoo.addBuilding(b);
+        }
+
+        // Returns null for an animal that is already present.
+        private Animal readAnimal(ByteBuffer in) {
+            int index = in.getInt();
+            String species = BinaryWriter.getString(in);
+            String name = BinaryWriter.getString(in);
+            boolean healthy = in.get() == 1;
+            Building location = buildings.get(in.getInt());
+            Building original = buildings.get(in.getInt());
+            if (animals.containsKey(index)) return null;
+            Animal a = Species.create(species, name, original != null ? original : location);
+            a.location = location;
+            a.health = healthy ? HealthState.HEALTHY : HealthState.SICK;
+            a.zooIndex = index;
+            animals.put(index, a);
+            return a;
+        }
+
+        private void addPerson(ByteBuffer in) {
+            int index = in.getInt();
+            byte role = in.get();
+            String name = BinaryWriter.getString(in);
+            Building location = buildings.get(in.getInt());
+            int age = 0;
+            String ticket = null;
+            if (role == VISITOR) {
+                age = in.getInt();
+                ticket = BinaryWriter.getString(in);
+            }
+            if (people.containsKey(index)) return;
+            Person p;
+            switch (role) {
+                case MANAGER: p = new Manager(name, location); break;
+                case VETERINARIAN: p = new Veterinarian(name, location); break;
+                case HANDLER: p = new Handler(name, location); break;
+                case VENDOR: p = new Vendor(name, location); break;
+                default:
+                    Visitor v = new Visitor(name, location);
+                    v.setAge(age);
+                    v.setTicketCode(ticket);
+                    p = v;
+            }
+            p.zooIndex = index;
+            people.put(index, p);
+            zoo.addPerson(p);
+        }
+
+        // Staff objects are already registered as people; this only re-points the Zoo's role fields.
+        private void assignStaff(int index) {
+            Person p = people.get(index);
+            if (p instanceof Manager) zoo.restoreManager((Manager) p);
+            else if (p instanceof Veterinarian) zoo.restoreVeterinarian((Veterinarian) p);
+        }
+    }
+}
+
+// Builds a Zoo from a line-oriented config in one pass. Each line is kind|field|field...,
+// and blank lines and lines starting with # are skipped:
+//
+//   enclosure|Feline Enclosure
+//   hospital|Animal Hospital
+//   ticket-shop|Ticket Shop
+//   food-shop|Food Shop
+//   product|Food Shop|Soft Drink|30|500   (price in pesos, optional stock; unlimited if omitted)
+//   animal|Tiger|Mufasa|Feline Enclosure
+//   manager|Mr. Hammond
+//   veterinarian|Dr. Ellie
+//   handler|Claire|Feline Enclosure
+//   vendor|Lisa|Ticket Shop
+//   capacity|5000|2000                    (visitors in the park, optional longest line at the gate)
+//   building-capacity|Bird Enclosure|200
+//   slots|30|400                          (slot length in minutes, tickets per slot)
+//
+// A building must be declared before anything refers to it. Apart from the zoo itself, the
+// loader only holds a name -> building map and one batch of animals.
+class ZooLoader {
+    private static final int ANIMAL_BATCH = 8192;
+
+    public static LoadReport load(Zoo zoo, Path config) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(config, StandardCharsets.UTF_8)) {
+            return load(zoo, in);
+        }
+    }
+
+    public static LoadReport load(Zoo zoo, BufferedReader in) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long started = System.nanoTime();
+
+        Map<String, Building> buildings = new HashMap<>();
+        Set<Shop> customCatalogue = new HashSet<>();
+        List<Animal> batch = new ArrayList<>(ANIMAL_BATCH);
+        int lines = 0, animals = 0, staff = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lines++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split("\\|");
+            try {
+                switch (f[0]) {
+                    case "enclosure": declare(zoo, buildings, new Enclosure(field(f, 1))); break;
+                    case "hospital": declare(zoo, buildings, named(new Hospital(), f)); break;
+                    case "ticket-shop": declare(zoo, buildings, named(new TicketShop(), f)); break;
+                    case "food-shop": declare(zoo, buildings, named(new FoodShop(), f)); break;
+                    case "product": {
+                        Shop shop = building(buildings, field(f, 1), Shop.class);
+                        if (customCatalogue.add(shop)) shop.setProducts(List.of());
+                        int stock = f.length > 4 ? Integer.parseInt(field(f, 4)) : Product.UNLIMITED;
+                        shop.addProduct(new Product(field(f, 2), parseCents(field(f, 3)), stock));
+                        break;
+                    }
+                    case "animal":
+                        batch.add(Species.create(field(f, 1), field(f, 2), building(buildings, field(f, 3), Enclosure.class)));
+                        animals++;
+                        if (batch.size() == ANIMAL_BATCH) {
+                            zoo.addAnimals(batch);
+                            batch.clear();
+                        }
+                        break;
+                    case "capacity": {
+                        zoo.getAdmissions().setCapacity(Integer.parseInt(field(f, 1)));
+                        if (f.length > 2) zoo.getAdmissions().setMaxQueue(Integer.parseInt(field(f, 2)));
+                        break;
+                    }
+                    case "building-capacity": zoo.getAdmissions().setCapacity(building(buildings, field(f, 1), Building.class), Integer.parseInt(field(f, 2))); break;
+                    case "slots": zoo.getAdmissions().enableTimedSlots(Duration.ofMinutes(Long.parseLong(field(f, 1))), Integer.parseInt(field(f, 2))); break;
+                    case "manager": zoo.setManager(new Manager(field(f, 1), null)); staff++; break;
+                    case "veterinarian": zoo.setVeterinarian(new Veterinarian(field(f, 1), zoo.getHospital())); staff++; break;
+                    case "handler": zoo.addPerson(new Handler(field(f, 1), building(buildings, field(f, 2), Enclosure.class))); staff++; break;
+                    case "vendor": zoo.addPerson(new Vendor(field(f, 1), building(buildings, field(f, 2), Shop.class))); staff++; break;
+                    default: throw new IllegalArgumentException("unknown entry '" + f[0] + "'");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Config line " + lines + ": " + e.getMessage(), e);
+            }
+        }
+        zoo.addAnimals(batch);
+
+        long elapsed = System.nanoTime() - started;
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        return new LoadReport(lines, buildings.size(), animals, staff, elapsed, heapAfter - heapBefore);
+    }
+
+    // Exact decimal parse, so "0.10" is 10 cents rather than whatever 0.1 rounds to.
+    private static long parseCents(String price) {
+        try {
+            return new BigDecimal(price).movePointRight(2).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("price '" + price + "' has fractions of a cent");
+        }
+    }
+
+    private static Building named(Building building, String[] f) {
+        if (f.length > 1 && !f[1].isBlank()) building.name = f[1].trim();
+        return building;
+    }
+    private static void declare(Zoo zoo, Map<String, Building> buildings, Building building) {
+        if (buildings.putIfAbsent(building.getName(), building) != null) {
+            throw new IllegalArgumentException("duplicate building '" + building.getName() + "'");
+        }
+        zoo.addBuilding(building);
+    }
+    private static <T extends Building> T building(Map<String, Building> buildings, String name, Class<T> type) {
+        Building b = buildings.get(name);
+        if (!type.isInstance(b)) throw new IllegalArgumentException("no " + type.getSimpleName() + " named '" + name + "'");
+        return type.cast(b);
+    }
+    private static String field(String[] f, int i) {
+        if (i >= f.length || f[i].isBlank()) throw new IllegalArgumentException("'" + f[0] + "' needs field " + i);
+        return f[i].trim();
+    }
+
+    // Usage: java -cp target/classes org.example.ZooLoader <config>
+    //    or: java -cp target/classes org.example.ZooLoader --generate <enclosures> <animalsPerEnclosure> > big.cfg
+    public static void main(String[] args) throws IOException {
+        boolean generate = args.length > 0 && args[0].equals("--generate");
+        if (args.length == 0 || generate && args.length < 3) {
+            System.err.println("Usage: ZooLoader <config> | --generate <enclosures> <animalsPerEnclosure>");
+            System.exit(2);
+        }
+        if (generate) {
+            generate(Integer.parseInt(args[1]), Integer.parseInt(args[2]), System.out);
+            return;
+        }
+        Zoo zoo = new Zoo();
+        load(zoo, Path.of(args[0])).print(System.out);
+    }
+
+    static void generate(int enclosures, int animalsPerEnclosure, PrintStream out) {
+        List<String> species = new ArrayList<>(Species.names());
+        out.println("hospital|Animal Hospital");
+        out.println("ticket-shop|Ticket Shop");
+        out.println("food-shop|Food Shop");
+        out.println("manager|Mr. Hammond");
+        out.println("veterinarian|Dr. Ellie");
+        out.println("vendor|Lisa|Ticket Shop");
+        out.println("vendor|Tommy|Food Shop");
+        for (int e = 0; e < enclosures; e++) {
+            out.println("enclosure|Enclosure " + e);
+            out.println("handler|Handler " + e + "|Enclosure " + e);
+            for (int a = 0; a < animalsPerEnclosure; a++) {
+                out.println("animal|" + species.get((e + a) % species.size()) + "|Animal " + e + "-" + a + "|Enclosure " + e);
+            }
+        }
+    }
+}
+
+class LoadReport {
+    private final int lines;
+    private final int buildings;
+    private final int animals;
+    private final int staff;
+    private final long elapsedNanos;
+    private final long heapDeltaBytes;
+
+    LoadReport(int lines, int buildings, int animals, int staff, long elapsedNanos, long heapDeltaBytes) {
+        this.lines = lines;
+        this.buildings = buildings;
+        this.animals = animals;
+        this.staff = staff;
+        this.elapsedNanos = elapsedNanos;
+        this.heapDeltaBytes = heapDeltaBytes;
+    }
+
+    public int getAnimals() { return animals; }
+    public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+    public void print(PrintStream out) {
+        out.printf("Loaded %,d lines: %,d buildings, %,d animals, %,d staff in %d ms (heap +%,d KiB)%n",
+                lines, buildings, animals, staff, getElapsedMillis(), heapDeltaBytes / 1024);
+    }
+}
+
+// Prices are whole cents. Stock is a lock-free counter; UNLIMITED products are never counted down.
+class Product {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    // Numbered by the first shop that lists the product; 0 until then.
+    int id;
+    private String name;
+    private final long priceCents;
+    private final AtomicInteger stock;
+    private final LongAdder unitsSold = new LongAdder();
+    private final LongAdder revenueCents = new LongAdder();
+    public Product(String name, double price) { this(name, Math.round(price * 100), UNLIMITED); }
+    public Product(String name, long priceCents, int stock) {
+        if (priceCents < 0 || stock < 0) throw new IllegalArgumentException("Price and stock must not be negative");
+        this.name = name;
+        this.priceCents = priceCents;
+        this.stock = new AtomicInteger(stock);
+    }
+    public int getId() { return id; }
+    public String getName() { return name; }
+    public double getPrice() { return priceCents / 100.0; }
+    public long getPriceCents() { return priceCents; }
+    public int getStock() { return stock.get(); }
+    public boolean isUnlimited() { return stock.get() == UNLIMITED; }
+    public void restock(int units) {
+        stock.updateAndGet(s -> s == UNLIMITED ? s : (int) Math.min(UNLIMITED - 1L, (long) s + units));
+    }
+    public long getUnitsSold() { return unitsSold.sum(); }
+    public long getRevenueCents() { return revenueCents.sum(); }
+
+    boolean take(int units) {
+        int s;
+        do {
+            s = stock.get();
+            if (s == UNLIMITED) return true;
+            if (s < units) return false;
+        } while (!stock.compareAndSet(s, s - units));
+        return true;
+    }
+    void putBack(int units) {
+        stock.updateAndGet(s -> s == UNLIMITED ? s : s + units);
+    }
+    void recordSale(long units, long cents) {
+        unitsSold.add(units);
+        revenueCents.add(cents);
+    }
+}
+
+abstract class Building {
+    protected String name;
+    int zooIndex = -1;
+    Zoo zoo;
+    public String getName() { return name; }
+}
+class Enclosure extends Building {
+    public Enclosure(String name) { this.name = name; }
+}
+// What a handler can find on examination, and how long the hospital needs to treat it.
+enum Condition {
+    CHECK_UP("routine check-up", Duration.ofMinutes(2)),
+    MINOR_INJURY("minor injury", Duration.ofMinutes(10)),
+    INFECTION("infection", Duration.ofMinutes(30)),
+    FRACTURE("fracture", Duration.ofHours(2));
+
+    private static final Condition[] VALUES = values();
+    private final String label;
+    private final Duration treatment;
+    Condition(String label, Duration treatment) { this.label = label; this.treatment = treatment; }
+    public String getLabel() { return label; }
+    public Duration getTreatment() { return treatment; }
+
+    // Mostly check-ups, occasionally something serious.
+    static Condition diagnose(int roll) {
+        return roll < 50 ? CHECK_UP : roll < 80 ? MINOR_INJURY : roll < 95 ? INFECTION : FRACTURE;
+    }
+    static Condition diagnose() { return diagnose(ThreadLocalRandom.current().nextInt(100)); }
+    static Condition of(int ordinal) { return VALUES[ordinal]; }
+}
+
+// Hierarchical timing wheel: LEVELS wheels of SLOTS buckets, where one bucket of a level spans
+// a whole turn of the level below. Scheduling and cancelling are O(1), a tick looks at one
+// bucket, and an entry is moved down at most LEVELS - 1 times on its way to expiring.
+// With one-second ticks the wheels cover 64^4 s (about six months); anything later parks in
+// the top level and is re-placed each time it comes round.
+class TimerWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private final long tickMillis;
+    private final Timeout<T>[][] buckets;
+    private long currentTick = Long.MIN_VALUE;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMillis) {
+        this.tickMillis = tickMillis;
+        this.buckets = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+        for (Timeout<T>[] level : buckets) {
+            for (int s = 0; s < SLOTS; s++) level[s] = new Timeout<>(null, 0);
+        }
+    }
+
+    // nowMillis only matters for the very first entry, which fixes where the wheel starts turning.
+    public synchronized Timeout<T> schedule(T item, long dueMillis, long nowMillis) {
+        long dueTick = Math.floorDiv(dueMillis + tickMillis - 1, tickMillis);
+        if (currentTick == Long.MIN_VALUE) currentTick = Math.floorDiv(nowMillis, tickMillis);
+        Timeout<T> timeout = new Timeout<>(item, dueTick);
+        place(timeout, currentTick + 1);
+        size++;
+        return timeout;
+    }
+
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || timeout.prev == null) return false;
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    public synchronized int size() { return size; }
+
+    // Moves the wheel up to nowMillis and returns what fell due, oldest tick first.
+    public synchronized List<T> advance(long nowMillis) {
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        if (currentTick == Long.MIN_VALUE || size == 0) {
+            currentTick = Math.max(currentTick, target);
+            return List.of();
+        }
+        List<T> expired = new ArrayList<>();
+        while (currentTick < target && size > 0) {
+            currentTick++;
+            for (int level = 1; level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+                cascade(buckets[level][(int) (currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)]);
+            }
+            for (Timeout<T> t = detach(buckets[0][(int) currentTick & (SLOTS - 1)]); t != null; ) {
+                Timeout<T> next = t.next;
+                t.next = null;
+                if (t.dueTick <= currentTick) {
+                    size--;
+                    expired.add(t.item);
+                } else {
+                    place(t, currentTick + 1);
+                }
+                t = next;
+            }
+        }
+        if (currentTick < target) currentTick = target;
+        return expired;
+    }
+
+    private void cascade(Timeout<T> head) {
+        for (Timeout<T> t = detach(head); t != null; ) {
+            Timeout<T> next = t.next;
+            t.next = null;
+            place(t, currentTick);
+            t = next;
+        }
+    }
+
+    // Empties a bucket and returns its entries as a null-terminated chain, so that re-placing an
+    // entry (possibly into the same bucket, for timers beyond the top level) cannot loop.
+    private static <T> Timeout<T> detach(Timeout<T> head) {
+        if (head.next == head) return null;
+        Timeout<T> first = head.next;
+        head.prev.next = null;
+        for (Timeout<T> t = first; t != null; t = t.next) t.prev = null;
+        head.next = head;
+        head.prev = head;
+        return first;
+    }
+
+    // Lowest level on which the due tick and the current tick share the same turn of the level
+    // above. Nothing goes earlier than earliestTick, the first bucket that is still to be visited.
+    private void place(Timeout<T> t, long earliestTick) {
+        long due = Math.max(t.dueTick, earliestTick);
+        int level = 0;
+        while (level < LEVELS - 1 && (due >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) level++;
+        Timeout<T> head = buckets[level][(int) (due >>> (SLOT_BITS * level)) & (SLOTS - 1)];
+        t.prev = head.prev;
+        t.next = head;
+        head.prev.next = t;
+        head.prev = t;
+    }
+
+    private static <T> void unlink(Timeout<T> t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+    }
+
+    static final class Timeout<T> {
+        final T item;
+        final long dueTick;
+        Timeout<T> prev = this;
+        Timeout<T> next = this;
+        Timeout(T item, long dueTick) { this.item = item; this.dueTick = dueTick; }
+    }
+}
+
+// The ward is a map from animal to its admission, and admissions also wait in a lock-free FIFO.
+// A queued admission whose animal was discharged some other way is stale and is skipped when
+// drained. Each animal can leave the ward only once, so several vets can drain concurrently.
+// Every admission also gets a recovery timer; tick() discharges whatever has finished its
+// treatment, so the ward empties on its own without anyone calling healAll.
+class Hospital extends Building {
+    static final long TICK_MILLIS = 1_000;
+    private final Queue<Admission> admissions = new ConcurrentLinkedQueue<>();
+    private final Map<Animal, Admission> ward = new ConcurrentHashMap<>();
+    private final Collection<Animal> wardView = Collections.unmodifiableSet(ward.keySet());
+    private final SnapshotView<Animal> sickView = new SnapshotView<>(this::collectSick);
+    private final AtomicInteger staleAdmissions = new AtomicInteger();
+    private final HealedAnimalLog healedAnimalLog = new HealedAnimalLog();
+    private final TimerWheel<Admission> recoveries = new TimerWheel<>(TICK_MILLIS);
+    private volatile LongSupplier clock = System::currentTimeMillis;
+    public Hospital() { this.name = "Animal Hospital"; }
+    // Restored admissions and direct admissions carry no diagnosis and are treated as a check-up.
+    public void admitAnimal(Animal animal) { admitAnimal(animal, Condition.CHECK_UP); }
+    // False if the animal is already in the ward.
+    public boolean admitAnimal(Animal animal, Condition condition) {
+        checkJournaled(animal);
+        long now = clock.getAsLong();
+        Admission admission = new Admission(animal, condition, now + condition.getTreatment().toMillis());
+        if (ward.putIfAbsent(animal, admission) != null) return false;
+        animal.startTreatment();
+        admissions.add(admission);
+        sickView.changed();
+        admission.timeout = recoveries.schedule(admission, admission.dueMillis, now);
+        ZooMetrics m = metrics();
+        if (m != null) m.admitted();
+        DayBook b = dayBook();
+        if (b != null) b.record(DayBook.Activity.ADMISSION, animal.getId(), 1);
+        ZooJournal j = journal();
+        if (j != null) j.admitted(this, animal);
+        return true;
+    }
+    // The log can only name the zoo's own animals; anything else, an AnimalStore view say,
+    // would come back from a replay as nobody.
+    void checkJournaled(Animal animal) {
+        if (animal.zooIndex < 0 && journal() != null) {
+            throw new IllegalArgumentException(animal.getName() + " is not one of the zoo's animals, so its admission cannot be logged");
+        }
+    }
+    public void dischargeAnimal(Animal animal) {
+        Admission admission = ward.remove(animal);
+        if (admission == null) return;
+        sickView.changed();
+        recoveries.cancel(admission.timeout);
+        ZooMetrics m = metrics();
+        if (m != null) m.discharged(1);
+        DayBook b = dayBook();
+        if (b != null) b.record(DayBook.Activity.DISCHARGE, animal.getId(), 1);
+        ZooJournal j = journal();
+        if (j != null) j.discharged(this, animal);
+        if (staleAdmissions.incrementAndGet() > ward.size() + 64) {
+            staleAdmissions.set(0);
+            admissions.removeIf(a -> ward.get(a.animal) != a);
+        }
+    }
+    // Moves up to max animals out of the ward, oldest admission first.
+    public int drainWard(List<Animal> into, int max) {
+        int drained = 0;
+        Admission admission;
+        while (drained < max && (admission = admissions.poll()) != null) {
+            if (ward.remove(admission.animal, admission)) {
+                sickView.changed();
+                recoveries.cancel(admission.timeout);
+                into.add(admission.animal);
+                drained++;
+                ZooJournal j = journal();
+                if (j != null) j.discharged(this, admission.animal);
+            }
+        }
+        ZooMetrics m = metrics();
+        if (m != null && drained > 0) m.discharged(drained);
+        DayBook b = dayBook();
+        if (b != null && drained > 0) b.record(DayBook.Activity.DISCHARGE, 0, drained);
+        return drained;
+    }
+    // Discharges every animal whose treatment is over, sending it back to its enclosure with the
+    // zoo's veterinarian signing it off. Returns how many left.
+    public int tick() { return tick(clock.getAsLong()); }
+    public int tick(long nowMillis) {
+        int recovered = 0;
+        Veterinarian vet = zoo == null ? null : zoo.getVeterinarian();
+        for (Admission admission : recoveries.advance(nowMillis)) {
+            if (!ward.remove(admission.animal, admission)) continue;
+            sickView.changed();
+            staleAdmissions.incrementAndGet();
+            ZooJournal j = journal();
+            if (j != null) j.discharged(this, admission.animal);
+            if (vet != null) {
+                vet.discharge(this, admission.animal, nowMillis);
+            } else {
+                admission.animal.setHealthy(true);
+                logHealedAnimal(admission.animal, null, nowMillis);
+                ZooEvents.emit(ZooEvent.DISCHARGED, null, admission.animal);
+                admission.animal.setLocation(admission.animal.getOriginalEnclosure());
+            }
+            recovered++;
+        }
+        ZooMetrics m = metrics();
+        if (m != null && recovered > 0) m.discharged(recovered);
+        DayBook b = dayBook();
+        if (b != null && recovered > 0) b.record(DayBook.Activity.DISCHARGE, 0, recovered);
+        if (staleAdmissions.get() > ward.size() + 64) {
+            staleAdmissions.set(0);
+            admissions.removeIf(a -> ward.get(a.animal) != a);
+        }
+        return recovered;
+    }
+    public void setClock(LongSupplier clock) { this.clock = clock; }
+    // Oldest admission first; the same list is handed out until someone is admitted or discharged.
+    public List<Animal> getSickAnimals() { return sickView.get(); }
+    public SnapshotView<Animal> getSickAnimalsView() { return sickView; }
+    private List<Animal> collectSick() {
+        List<Animal> sick = new ArrayList<>(ward.size());
+        for (Admission a : admissions) {
+            if (ward.get(a.animal) == a) sick.add(a.animal);
+        }
+        return sick;
+    }
+    // Live view: admissions and recoveries show up as they happen, in no particular order.
+    public Collection<Animal> getWard() { return wardView; }
+    public int getWardSize() { return ward.size(); }
+    public Condition getCondition(Animal animal) {
+        Admission a = ward.get(animal);
+        return a == null ? null : a.condition;
+    }
+    // Epoch millis at which the animal's treatment ends, or -1 if it is not in the ward.
+    public long getRecoveryDue(Animal animal) {
+        Admission a = ward.get(animal);
+        return a == null ? -1 : a.dueMillis;
+    }
+    public long now() { return clock.getAsLong(); }
+    private ZooJournal journal() { return zoo == null ? null : zoo.journal(); }
+    private ZooMetrics metrics() { return zoo == null ? null : zoo.getMetrics(); }
+    private DayBook dayBook() { return zoo == null || zoo.isRestoring() ? null : zoo.getDayBook(); }
+    public void logHealedAnimal(Animal animal, Veterinarian vet, long epochMillis) {
+        long seq = healedAnimalLog.record(animal, vet, epochMillis);
+        ZooJournal j = journal();
+        if (j != null) j.healed(this, seq, epochMillis, animal, vet);
+    }
+    public List<String> getHealedAnimalLog() { return healedAnimalLog.formatRecent(); }
+    public List<String> getHealedAnimalHistory(Zoo zoo) {
+        Map<Integer, String> names = new HashMap<>();
+        for (Animal a : zoo.getAnimals()) names.put(a.zooIndex, a.getName());
+        return healedAnimalLog.formatHistory(index -> names.getOrDefault(index, "Animal #" + index));
+    }
+    public HealedAnimalLog getHealedLog() { return healedAnimalLog; }
+
+    private static class Admission {
+        final Animal animal;
+        final Condition condition;
+        final long dueMillis;
+        volatile TimerWheel.Timeout<Admission> timeout;
+        Admission(Animal animal, Condition condition, long dueMillis) {
+            this.animal = animal;
+            this.condition = condition;
+            this.dueMillis = dueMillis;
+        }
+    }
+}
+// Healed-animal events as 16-byte records: epoch millis, animal, vet. The newest
+// RING_CAPACITY records stay in memory for the visitor monitor. If persistence is enabled,
+// every record is also appended to memory-mapped segment files. Text is only produced when
+// someone asks for the log.
+class HealedAnimalLog implements AutoCloseable {
+    static final int RECORD_BYTES = 16;
+    private static final int RING_CAPACITY = 1024;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Per slot: epoch millis, (animal id << 32 | vet id), sequence + 1 (written last).
+    private final AtomicLongArray ring = new AtomicLongArray(RING_CAPACITY * 3);
+    private final AtomicLong written = new AtomicLong();
+    private final Map<Integer, String> animalNames = new ConcurrentHashMap<>();
+    private volatile SegmentWriter segments;
+
+    public long record(Animal animal, Veterinarian vet, long epochMillis) {
+        animalNames.putIfAbsent(animal.getId(), animal.getName());
+        int vetId = vet == null ? 0 : vet.getId();
+        long seq = written.getAndIncrement();
+        int slot = (int) (seq % RING_CAPACITY) * 3;
+        ring.lazySet(slot + 2, 0);
+        ring.lazySet(slot, epochMillis);
+        ring.lazySet(slot + 1, ((long) animal.getId() << 32) | (vetId & 0xFFFFFFFFL));
+        ring.set(slot + 2, seq + 1);
+        // The history outlives this process, so it keys records by zoo index rather than by id.
+        SegmentWriter writer = segments;
+        if (writer != null) writer.append(epochMillis, animal.zooIndex, vet == null ? -1 : vet.zooIndex);
+        return seq;
+    }
+
+    // Re-inserts a record during restore; records already present are skipped.
+    void restore(long seq, Animal animal, Veterinarian vet, long epochMillis) {
+        if (seq < written.get()) return;
+        written.set(seq);
+        record(animal, vet, epochMillis);
+    }
+
+    // Visits the records still in the ring: sequence, epoch millis, animal id, vet id.
+    void forEachRecent(RingVisitor visitor) {
+        long end = written.get();
+        for (long seq = Math.max(0, end - RING_CAPACITY); seq < end; seq++) {
+            int slot = (int) (seq % RING_CAPACITY) * 3;
+            long millis = ring.get(slot);
+            long ids = ring.get(slot + 1);
+            if (ring.get(slot + 2) != seq + 1) continue;
+            visitor.visit(seq, millis, (int) (ids >>> 32), (int) ids);
+        }
+    }
+
+    interface RingVisitor {
+        void visit(long seq, long epochMillis, int animalId, int vetId);
+    }
+
+    public long size() { return written.get(); }
+
+    public List<String> formatRecent() {
+        long end = written.get();
+        List<String> lines = new ArrayList<>((int) Math.min(end, RING_CAPACITY));
+        for (long seq = Math.max(0, end - RING_CAPACITY); seq < end; seq++) {
+            int slot = (int) (seq % RING_CAPACITY) * 3;
+            long millis = ring.get(slot);
+            long ids = ring.get(slot + 1);
+            if (ring.get(slot + 2) != seq + 1) continue; // overwritten or still being written
+            String name = animalNames.getOrDefault((int) (ids >>> 32), "Animal #" + (ids >>> 32));
+            lines.add("✅ " + name + " (" + TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())) + ")");
+        }
+        return lines;
+    }
+
+    // Every record in the segment history, earlier runs included; just the ring when there is
+    // no history on disk.
+    public List<String> formatHistory(IntFunction<String> animalName) {
+        SegmentWriter writer = segments;
+        if (writer == null) return formatRecent();
+        List<String> lines = new ArrayList<>();
+        try {
+            writer.forEach((millis, animalIndex, vetIndex) -> lines.add("✅ " + animalName.apply(animalIndex) + " ("
+                    + TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault())) + ")"));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read the healed-animal history", e);
+        }
+        return lines;
+    }
+
+    public void persistTo(Path directory) throws IOException {
+        SegmentWriter previous = segments;
+        segments = new SegmentWriter(directory, "healed", 1 << 20);
+        if (previous != null) previous.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        SegmentWriter writer = segments;
+        segments = null;
+        if (writer != null) writer.close();
+    }
+
+    // Append-only record files <prefix>-000000.seg, <prefix>-000001.seg, ... Writers claim a
+    // slot with one atomic add, and all but the writer that fills a segment stay lock-free.
+    // Unwritten slots are zero, which is how readers and a restart find the end.
+    static class SegmentWriter implements AutoCloseable {
+        private final Path directory;
+        private final String prefix;
+        private final int segmentBytes;
+        private volatile Segment current;
+
+        SegmentWriter(Path directory, String prefix, int segmentBytes) throws IOException {
+            this.directory = directory;
+            this.prefix = prefix;
+            this.segmentBytes = segmentBytes - segmentBytes % RECORD_BYTES;
+            Files.createDirectories(directory);
+            int index = 0;
+            while (Files.exists(segmentPath(index + 1))) index++;
+            this.current = new Segment(index, open(index));
+            current.resumeAtEnd();
+        }
+
+        void append(long epochMillis, int first, int second) {
+            while (true) {
+                Segment segment = current;
+                long offset = segment.position.getAndAdd(RECORD_BYTES);
+                if (offset + RECORD_BYTES <= segmentBytes) {
+                    segment.buffer.putInt((int) offset + 8, first);
+                    segment.buffer.putInt((int) offset + 12, second);
+                    segment.buffer.putLong((int) offset, epochMillis);
+                    return;
+                }
+                roll(segment);
+            }
+        }
+
+        // Visits every persisted record, oldest first.
+        void forEach(RecordVisitor visitor) throws IOException {
+            for (int index = 0; Files.exists(segmentPath(index)); index++) {
+                try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    for (int offset = 0; offset + RECORD_BYTES <= buffer.limit(); offset += RECORD_BYTES) {
+                        long millis = buffer.getLong(offset);
+                        if (millis == 0) break;
+                        visitor.visit(millis, buffer.getInt(offset + 8), buffer.getInt(offset + 12));
+                    }
+                }
+            }
+        }
+
+        private synchronized void roll(Segment full) {
+            if (current != full) return;
+            try {
+                full.buffer.force();
+                current = new Segment(full.index + 1, open(full.index + 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open next " + prefix + " segment", e);
+            }
+        }
+
+        private MappedByteBuffer open(int index) throws IOException {
+            try (FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+        }
+
+        private Path segmentPath(int index) { return directory.resolve(String.format("%s-%06d.seg", prefix, index)); }
+
+        @Override
+        public synchronized void close() { current.buffer.force(); }
+
+        private static class Segment {
+            final int index;
+            final MappedByteBuffer buffer;
+            final AtomicLong position = new AtomicLong();
+            Segment(int index, MappedByteBuffer buffer) { this.index = index; this.buffer = buffer; }
+            void resumeAtEnd() {
+                int offset = 0;
+                while (offset + RECORD_BYTES <= buffer.limit() && buffer.getLong(offset) != 0) offset += RECORD_BYTES;
+                position.set(offset);
+            }
+        }
+    }
+
+    interface RecordVisitor {
+        void visit(long epochMillis, int first, int second);
+    }
+}
+abstract class Shop extends Building {
+    private final List<Product> products = new CopyOnWriteArrayList<>();
+    private final SnapshotView<Product> productsView = new SnapshotView<>(() -> products);
+    private final SalesJournal sales = new SalesJournal();
+    private final LongAdder revenueCents = new LongAdder();
+    private final LongAdder checkouts = new LongAdder();
+    private final ReentrantReadWriteLock checkpoint = new ReentrantReadWriteLock();
+    private final AtomicInteger nextProductId = new AtomicInteger();
+    public List<Product> getProducts() { return productsView.get(); }
+    public SnapshotView<Product> getProductsView() { return productsView; }
+    public void addProduct(Product product) {
+        number(product);
+        products.add(product);
+        productsView.changed();
+    }
+    public void setProducts(List<Product> catalogue) {
+        catalogue.forEach(this::number);
+        synchronized (products) {
+            products.clear();
+            products.addAll(catalogue);
+        }
+        productsView.changed();
+    }
+    private void number(Product product) {
+        synchronized (product) {
+            if (product.id == 0) product.id = nextProductId.incrementAndGet();
+        }
+    }
+    public SalesJournal getSales() { return sales; }
+    public long getRevenueCents() { return revenueCents.sum(); }
+    public long getCheckouts() { return checkouts.sum(); }
+
+    // All or nothing: stock for every line is taken before anything is charged and handed back
+    // if a later line has sold out. Checkouts only meet on a shared product's stock counter and
+    // the shared side of the checkpoint lock.
+    public Receipt checkout(Person buyer, List<Product> cart) {
+        long started = System.nanoTime();
+        List<Product> lines = new ArrayList<>(cart.size());
+        int[] quantities = new int[cart.size()];
+        for (Product p : cart) {
+            int line = lines.indexOf(p);
+            if (line < 0) {
+                line = lines.size();
+                lines.add(p);
+            }
+            quantities[line]++;
+        }
+        Lock shared = checkpoint.readLock();
+        shared.lock();
+        try {
+            for (int i = 0; i < lines.size(); i++) {
+                if (!lines.get(i).take(quantities[i])) {
+                    for (int j = 0; j < i; j++) lines.get(j).putBack(quantities[j]);
+                    return Receipt.soldOut(lines.get(i));
+                }
+            }
+            long total = 0;
+            long[] cents = new long[lines.size()];
+            for (int i = 0; i < lines.size(); i++) {
+                cents[i] = lines.get(i).getPriceCents() * quantities[i];
+                lines.get(i).recordSale(quantities[i], cents[i]);
+                total += cents[i];
+            }
+            long now = System.currentTimeMillis();
+            long saleId = sales.append(now, buyer == null ? -1 : buyer.getId(), lines, quantities);
+            revenueCents.add(total);
+            checkouts.increment();
+            ZooJournal j = zoo == null ? null : zoo.journal();
+            if (j != null) j.sold(this, saleId, now, buyer, lines, quantities, cents);
+            if (zoo != null) zoo.getMetrics().checkout(total, System.nanoTime() - started);
+            return new Receipt(saleId, total, null);
+        } finally {
+            shared.unlock();
+        }
+    }
+
+    // Held by a snapshot while it reads this shop, so that every sale is either in the snapshot
+    // or in the log that follows it, never in both.
+    Lock checkpointLock() { return checkpoint.writeLock(); }
+
+    void restoreRevenue(long cents) { revenueCents.add(cents); }
+    // Replays a logged sale. Stock is taken as far as it goes; the sale itself already happened.
+    void restoreSale(long epochMillis, int buyerId, List<Product> lines, int[] quantities, long[] cents) {
+        long total = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            Product p = lines.get(i);
+            if (!p.take(quantities[i])) p.take(Math.min(quantities[i], p.getStock()));
+            p.recordSale(quantities[i], cents[i]);
+            total += cents[i];
+        }
+        sales.append(epochMillis, buyerId, lines, quantities);
+        revenueCents.add(total);
+        checkouts.increment();
+    }
+}
+class Receipt {
+    private final long saleId;
+    private final long totalCents;
+    private final Product soldOut;
+    Receipt(long saleId, long totalCents, Product soldOut) {
+        this.saleId = saleId;
+        this.totalCents = totalCents;
+        this.soldOut = soldOut;
+    }
+    static Receipt soldOut(Product product) { return new Receipt(-1, 0, product); }
+    public boolean isPaid() { return soldOut == null; }
+    public long getSaleId() { return saleId; }
+    public long getTotalCents() { return totalCents; }
+    public Product getSoldOut() { return soldOut; }
+}
+// Sale lines stored column by column in fixed-size chunks. A checkout claims a run of rows with
+// one atomic add and fills them in; the quantity column is written last with release semantics,
+// so a reader never sees a half-written row. The chunk directory is copy-on-write and only
+// changes once every CHUNK_ROWS rows.
+class SalesJournal {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_ROWS = 1 << CHUNK_SHIFT;
+    private final AtomicLong rows = new AtomicLong();
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    long append(long epochMillis, int buyerId, List<Product> products, int[] quantities) {
+        long first = rows.getAndAdd(products.size());
+        for (int i = 0; i < products.size(); i++) {
+            long row = first + i;
+            Chunk c = chunk((int) (row >>> CHUNK_SHIFT));
+            int r = (int) row & (CHUNK_ROWS - 1);
+            Product p = products.get(i);
+            c.epochMillis[r] = epochMillis;
+            c.sale[r] = first;
+            c.buyer[r] = buyerId;
+            c.product[r] = p.getId();
+            c.amountCents[r] = p.getPriceCents() * quantities[i];
+            c.quantity.setRelease(r, quantities[i]);
+        }
+        return first;
+    }
+
+    public long size() { return rows.get(); }
+
+    // Skips rows whose checkout is still being written.
+    public void forEach(SaleVisitor visitor) {
+        Chunk[] cs = chunks;
+        long end = Math.min(rows.get(), (long) cs.length << CHUNK_SHIFT);
+        for (long row = 0; row < end; row++) {
+            Chunk c = cs[(int) (row >>> CHUNK_SHIFT)];
+            int r = (int) row & (CHUNK_ROWS - 1);
+            int quantity = c.quantity.getAcquire(r);
+            if (quantity != 0) visitor.visit(c.epochMillis[r], c.sale[r], c.buyer[r], c.product[r], quantity, c.amountCents[r]);
+        }
+    }
+
+    private Chunk chunk(int index) {
+        Chunk[] cs = chunks;
+        if (index < cs.length) return cs[index];
+        synchronized (this) {
+            cs = chunks;
+            if (index >= cs.length) {
+                Chunk[] grown = Arrays.copyOf(cs, index + 1);
+                for (int i = cs.length; i <= index; i++) grown[i] = new Chunk();
+                chunks = grown;
+                cs = grown;
+            }
+            return cs[index];
+        }
+    }
+
+    private static class Chunk {
+        final long[] epochMillis = new long[CHUNK_ROWS];
+        final long[] sale = new long[CHUNK_ROWS];
+        final int[] buyer = new int[CHUNK_ROWS];
+        final int[] product = new int[CHUNK_ROWS];
+        final long[] amountCents = new long[CHUNK_ROWS];
+        final AtomicIntegerArray quantity = new AtomicIntegerArray(CHUNK_ROWS);
+    }
+
+    // Parallel counterpart of forEach for reports. Quantities are read with acquire first, so
+    // every row with a non-zero quantity is fully visible; zero marks a row still being written.
+    public <A> A reduce(Supplier<A> identity, ChunkReducer<A> reducer, BinaryOperator<A> combiner) {
+        Chunk[] cs = chunks;
+        long end = Math.min(rows.get(), (long) cs.length << CHUNK_SHIFT);
+        int count = (int) ((end + CHUNK_ROWS - 1) >>> CHUNK_SHIFT);
+        return IntStream.range(0, count).parallel()
+                .mapToObj(i -> {
+                    Chunk c = cs[i];
+                    int n = (int) Math.min(CHUNK_ROWS, end - ((long) i << CHUNK_SHIFT));
+                    int[] quantities = new int[n];
+                    for (int r = 0; r < n; r++) quantities[r] = c.quantity.getAcquire(r);
+                    return reducer.reduce(identity.get(), c.epochMillis, c.product, quantities, c.amountCents, n);
+                })
+                .reduce(combiner)
+                .orElseGet(identity);
+    }
+
+    interface SaleVisitor {
+        void visit(long epochMillis, long saleId, int buyerId, int productId, int quantity, long amountCents);
+    }
+    interface ChunkReducer<A> {
+        A reduce(A into, long[] epochMillis, int[] product, int[] quantity, long[] amountCents, int rows);
+    }
+}
+class TicketShop extends Shop {
+    public TicketShop() { this.name = "Ticket Shop"; }
+}
+class FoodShop extends Shop {
+    public FoodShop() {
+        this.name = "Food Shop";
+        addProduct(new Product("Soft Drink", 30));
+        addProduct(new Product("Popcorn", 50));
+        addProduct(new Product("Plush Toy", 120));
+        addProduct(new Product("Keychain", 45));
+    }
+}
+
+// Everything the domain classes narrate. The text sinks render these exactly as the
+// console always printed them; the binary sink keeps only the type and the ids.
+enum ZooEvent { MOVED, ATE, SLEPT, ROAMED, SOUNDED, FED, EXERCISED, ZOO_OPENED, ZOO_CLOSED, SELLING, HEALED, HEAL_ROUND, DISCHARGED, LECTURE }
+
+interface EventSink {
+    EventSink NONE = (event, subject, object) -> { };
+    EventSink CONSOLE = (event, subject, object) -> System.out.println(ZooEvents.text(event, subject, object));
+
+    // subject is the Person or Animal acting; object is the Building or Animal acted on, or null.
+    void emit(ZooEvent event, Object subject, Object object);
+}
+
+// Domain classes emit through here. A thread can bind its own sink (a server session, a
+// quiet simulation) without disturbing what everyone else sees.
+final class ZooEvents {
+    private static final ThreadLocal<EventSink> BOUND = new ThreadLocal<>();
+    private static volatile EventSink global = EventSink.CONSOLE;
+
+    private ZooEvents() { }
+
+    static void emit(ZooEvent event, Object subject, Object object) { sink().emit(event, subject, object); }
+    static EventSink sink() {
+        EventSink bound = BOUND.get();
+        return bound != null ? bound : global;
+    }
+    static EventSink getGlobalSink() { return global; }
+    static void setGlobalSink(EventSink sink) { global = sink; }
+
+    // Returns the previous binding (possibly null) so callers can restore it in a finally block.
+    static EventSink bind(EventSink sink) {
+        EventSink previous = BOUND.get();
+        if (sink == null) BOUND.remove(); else BOUND.set(sink);
+        return previous;
+    }
+
+    static String text(ZooEvent event, Object subject, Object object) {
+        return appendText(new StringBuilder(64), event, subject, object).toString();
+    }
+
+    static StringBuilder appendText(StringBuilder sb, ZooEvent event, Object subject, Object object) {
+        switch (event) {
+            case MOVED -> sb.append(nameOf(subject)).append(" is moving to ").append(nameOf(object)).append('.');
+            case ATE -> sb.append(nameOf(subject)).append(" is eating.");
+            case SLEPT -> sb.append(nameOf(subject)).append(" is sleeping. Zzz...");
+            case ROAMED -> sb.append(nameOf(subject)).append(' ').append(((Animal) subject).roamText());
+            case SOUNDED -> sb.append(nameOf(subject)).append(' ').append(((Animal) subject).soundText());
+            case FED -> sb.append(nameOf(subject)).append(" is feeding ").append(nameOf(object)).append('.');
+            case EXERCISED -> sb.append(nameOf(subject)).append(" is exercising ").append(nameOf(object)).append('.');
+            case ZOO_OPENED -> sb.append("Manager ").append(nameOf(subject)).append(" has opened the zoo! Welcome!");
+            case ZOO_CLOSED -> sb.append("Manager ").append(nameOf(subject)).append(" has closed the zoo! Please come again.");
+            case SELLING -> sb.append(nameOf(subject)).append(" at the ").append(nameOf(object)).append(" is selling goods.");
+            case HEALED -> sb.append("✅ Healed: ").append(nameOf(object));
+            case HEAL_ROUND -> sb.append("Dr. ").append(nameOf(subject)).append(" begins healing sick animals...");
+            case DISCHARGED -> sb.append(nameOf(object)).append(" has been discharged and returned to enclosure.");
+            case LECTURE -> sb.append("Dr. ").append(nameOf(subject)).append(" gives a science lecture on animal health and conservation.");
+        }
+        return sb;
+    }
+
+    static String nameOf(Object o) {
+        if (o instanceof Person p) return p.getName();
+        if (o instanceof Animal a) return a.getName();
+        if (o instanceof Building b) return b.getName();
+        return String.valueOf(o);
+    }
+
+    // People and animals by id, buildings by their index in the zoo.
+    static int idOf(Object o) {
+        if (o instanceof Person p) return p.getId();
+        if (o instanceof Animal a) return a.getId();
+        if (o instanceof Building b) return b.zooIndex;
+        return -1;
+    }
+}
+
+// Producers claim a slot and publish it; one daemon thread renders whole batches into a
+// single write. A full ring makes producers wait rather than drop narration, unless the sink
+// is closed or its writer has died; then events are dropped and counted.
+class AsyncTextEventSink implements EventSink, AutoCloseable {
+    private final int mask;
+    private final ZooEvent[] events;
+    private final Object[] subjects;
+    private final Object[] objects;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final PrintStream out;
+    private final Thread writer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile long consumed;
+    private volatile boolean closed;
+    private volatile boolean stopped;
+
+    public AsyncTextEventSink(PrintStream out, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);
+        this.mask = size - 1;
+        this.events = new ZooEvent[size];
+        this.subjects = new Object[size];
+        this.objects = new Object[size];
+        this.published = new AtomicLongArray(size);
+        this.out = out;
+        this.writer = new Thread(this::drainLoop, "zoo-events");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void emit(ZooEvent event, Object subject, Object object) {
+        if (closed || stopped) {
+            dropped.increment();
+            return;
+        }
+        long seq = claimed.getAndIncrement();
+        while (seq - consumed > mask) {
+            if (stopped) {
+                dropped.increment();
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        int slot = (int) seq & mask;
+        events[slot] = event;
+        subjects[slot] = subject;
+        objects[slot] = object;
+        published.set(slot, seq + 1);
+    }
+
+    private void drainLoop() {
+        try {
+            drain();
+        } catch (RuntimeException | Error e) {
+            System.err.println("Event writer stopped: " + e);
+        } finally {
+            stopped = true;
+        }
+    }
+    private void drain() {
+        StringBuilder batch = new StringBuilder(8192);
+        while (true) {
+            long next = consumed;
+            int slot = (int) next & mask;
+            while (published.get(slot) == next + 1) {
+                ZooEvents.appendText(batch, events[slot], subjects[slot], objects[slot]).append(System.lineSeparator());
+                subjects[slot] = null;
+                objects[slot] = null;
+                next++;
+                if (batch.length() >= 8192) break;
+                slot = (int) next & mask;
+            }
+            if (batch.length() > 0) {
+                out.print(batch);
+                batch.setLength(0);
+                consumed = next;
+            } else if (closed && next == claimed.get()) {
+                out.flush();
+                return;
+            } else {
+                LockSupport.parkNanos(1_000_000L);
+            }
+        }
+    }
+
+    // Waits until everything emitted so far has been written, or the writer has stopped.
+    public void flush() {
+        long target = claimed.get();
+        while (consumed < target && !stopped) LockSupport.parkNanos(100_000L);
+        out.flush();
+    }
+    public long getDropped() { return dropped.sum(); }
+
+    // An interrupted close stops waiting for the writer and keeps the thread's interrupt flag set.
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// Fixed-size records in one preallocated buffer: nanoTime, event, subject id, object id.
+// Once the buffer is full further events are counted but not stored.
+class BinaryEventSink implements EventSink {
+    static final int RECORD_BYTES = 20;
+    private static final ZooEvent[] EVENTS = ZooEvent.values();
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    public BinaryEventSink(int capacity) {
+        this.capacity = capacity;
+        this.buffer = ByteBuffer.allocateDirect(capacity * RECORD_BYTES);
+    }
+
+    @Override
+    public void emit(ZooEvent event, Object subject, Object object) {
+        int index = next.getAndIncrement();
+        if (index >= capacity) {
+            dropped.increment();
+            return;
+        }
+        int offset = index * RECORD_BYTES;
+        buffer.putLong(offset, System.nanoTime());
+        buffer.putInt(offset + 8, event.ordinal());
+        buffer.putInt(offset + 12, ZooEvents.idOf(subject));
+        buffer.putInt(offset + 16, ZooEvents.idOf(object));
+    }
+
+    public int size() { return Math.min(next.get(), capacity); }
+    public long getDropped() { return dropped.sum(); }
+
+    // Only meaningful once producers have stopped.
+    public void forEach(EventVisitor visitor) {
+        int n = size();
+        for (int i = 0; i < n; i++) {
+            int offset = i * RECORD_BYTES;
+            visitor.visit(buffer.getLong(offset), EVENTS[buffer.getInt(offset + 8)], buffer.getInt(offset + 12), buffer.getInt(offset + 16));
+        }
+    }
+
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view = buffer.duplicate().position(0).limit(size() * RECORD_BYTES);
+        while (view.hasRemaining()) channel.write(view);
+    }
+
+    public void clear() {
+        next.set(0);
+        dropped.reset();
+    }
+
+    interface EventVisitor {
+        void visit(long nanoTime, ZooEvent event, int subjectId, int objectId);
+    }
+}
+
+abstract class Person {
+    protected String name;
+    protected volatile Building location;
+    int zooIndex = -1;
+    Zoo zoo;
+    public Person(String name, Building location) { this.name = name; this.location = location; }
+    // Numbered by the zoo that holds the person, one series per park, and kept across restarts;
+    // 0 until the person joins a zoo.
+    public int getId() { return zooIndex + 1; }
+    public String getName() { return name; }
+    public Building getLocation() { return location; }
+    public void goTo(Building destination) { moveTo(destination, false); }
+    void moveTo(Building destination, boolean reserved) {
+        Building from = this.location;
+        this.location = destination;
+        if (zoo != null && this instanceof Visitor) {
+            zoo.getMetrics().visitorMoved(destination);
+            zoo.getOccupancy().moved(this, from, destination);
+            zoo.getAdmissions().moved(from, destination, reserved);
+        }
+        ZooEvents.emit(ZooEvent.MOVED, this, destination);
+    }
+}
+class Manager extends Person {
+    public Manager(String name, Building location) { super(name, location); }
+    public void openZoo() { ZooEvents.emit(ZooEvent.ZOO_OPENED, this, null); }
+    public void closeZoo() { ZooEvents.emit(ZooEvent.ZOO_CLOSED, this, null); }
+}
+// Automated feeding and exercise. Every tracked animal has a due time per task, kept in a
+// min-heap per enclosure, so taking or rescheduling a task costs O(log n). A handler works
+// through its own enclosure in batches; an idle handler steals a batch from whichever
+// enclosure is furthest behind. Animals that move (say, to the hospital) leave stale heap
+// entries behind, which are dropped when they surface, and get fresh ones where they land.
+// Entries that come due move from the heap to a ready queue, with a per-task count kept as
+// they go, so asking what is due costs only the entries that became due since the last ask.
+class CareScheduler {
+    enum Task {
+        FEEDING(Duration.ofHours(4)), EXERCISE(Duration.ofHours(3));
+
+        private final long intervalMillis;
+        Task(Duration interval) { this.intervalMillis = interval.toMillis(); }
+        public long getIntervalMillis() { return intervalMillis; }
+    }
+
+    static final int BATCH = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final Zoo zoo;
+    private final Map<Building, Round> rounds = new ConcurrentHashMap<>();
+    private final Map<Animal, Care> cares = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private volatile LongSupplier clock = System::currentTimeMillis;
+
+    CareScheduler(Zoo zoo) { this.zoo = zoo; }
+
+    public void setClock(LongSupplier clock) { this.clock = clock; }
+
+    // New animals are due for both tasks straight away.
+    void track(Animal animal) {
+        Care care = cares.computeIfAbsent(animal, Care::new);
+        long now = clock.getAsLong();
+        care.due[Task.FEEDING.ordinal()] = now;
+        care.due[Task.EXERCISE.ordinal()] = now;
+        enqueue(care);
+    }
+    // Called on every animal move; the old enclosure's entries go stale.
+    void moved(Animal animal) {
+        Care care = cares.get(animal);
+        if (care == null) track(animal);
+        else enqueue(care);
+    }
+    private void enqueue(Care care) {
+        Building location = care.animal.getLocation();
+        Round round = location instanceof Enclosure ? round(location) : null;
+        Entry[] retired, fresh = new Entry[Task.values().length];
+        synchronized (care) {
+            int version = ++care.version;
+            retired = care.entries.clone();
+            for (Task task : Task.values()) {
+                if (round != null) fresh[task.ordinal()] = new Entry(round, care, task, version, care.due[task.ordinal()]);
+            }
+            System.arraycopy(fresh, 0, care.entries, 0, fresh.length);
+        }
+        for (Entry e : retired) {
+            if (e != null) e.round.retire(e);
+        }
+        if (round == null) return;
+        round.lock.lock();
+        try {
+            for (Entry e : fresh) round.heap.add(e);
+            round.publishHead();
+        } finally {
+            round.lock.unlock();
+        }
+    }
+
+    // One round for this handler: a batch from its own enclosure, or a stolen one if it has
+    // nothing due. Returns the number of tasks done.
+    public int runRound(Handler handler) {
+        long now = clock.getAsLong();
+        Round own = handler.getLocation() == null ? null : rounds.get(handler.getLocation());
+        int done = own == null ? 0 : work(handler, own, now, false);
+        if (done > 0) return done;
+        Round victim = null;
+        for (Round round : rounds.values()) {
+            if (round != own && round.headDue <= now && (victim == null || round.headDue < victim.headDue)) victim = round;
+        }
+        return victim == null ? 0 : work(handler, victim, now, true);
+    }
+
+    private int work(Handler handler, Round round, long now, boolean stealing) {
+        Entry[] batch = new Entry[BATCH];
+        int n = 0;
+        if (!stealing) round.lock.lock();
+        else if (!round.lock.tryLock()) return 0;
+        try {
+            round.sweep(now);
+            Entry e;
+            while (n < BATCH && (e = round.ready.pollFirst()) != null) {
+                if (!e.ready) continue;
+                round.unready(e);
+                if (e.version == e.care.version) batch[n++] = e;
+            }
+            round.publishHead();
+        } finally {
+            round.lock.unlock();
+        }
+        int done = 0;
+        for (int i = 0; i < n; i++) {
+            Entry e = batch[i];
+            // Skipped animals are pushed back a full interval too, so nobody spins on them.
+            e.due = now + e.task.intervalMillis;
+            if (e.care.animal.getLocation() != round.enclosure || e.care.animal.getHealthState() == HealthState.IN_TREATMENT) continue;
+            if (e.task == Task.FEEDING) handler.feed(e.care.animal);
+            else handler.exercise(e.care.animal);
+            e.care.due[e.task.ordinal()] = e.due;
+            done++;
+        }
+        round.lock.lock();
+        try {
+            for (int i = 0; i < n; i++) {
+                if (batch[i].version == batch[i].care.version) round.heap.add(batch[i]);
+            }
+            round.publishHead();
+        } finally {
+            round.lock.unlock();
+        }
+        if (stealing && done > 0) round.stolen.add(done);
+        return done;
+    }
+
+    // Tasks due by now in one enclosure, counting only live entries.
+    public int[] getDue(Building enclosure) {
+        Round round = rounds.get(enclosure);
+        if (round == null) return new int[Task.values().length];
+        long now = clock.getAsLong();
+        round.lock.lock();
+        try {
+            round.sweep(now);
+            round.publishHead();
+            return round.due.clone();
+        } finally {
+            round.lock.unlock();
+        }
+    }
+    public long getStolen(Building enclosure) {
+        Round round = rounds.get(enclosure);
+        return round == null ? 0 : round.stolen.sum();
+    }
+    public long getNextDue(Animal animal, Task task) {
+        Care care = cares.get(animal);
+        return care == null ? -1 : care.due[task.ordinal()];
+    }
+
+    // One worker per handler. Workers sleep until something is due, checking at least once a second.
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (Person person : zoo.getPeople()) {
+            if (!(person instanceof Handler)) continue;
+            Handler handler = (Handler) person;
+            Thread worker = new Thread(() -> {
+                while (running) {
+                    if (runRound(handler) == 0) LockSupport.parkNanos(this, idleNanos());
+                }
+            }, "care-" + handler.getName());
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+            worker.join();
+        }
+        workers.clear();
+    }
+    private long idleNanos() {
+        long next = Long.MAX_VALUE;
+        for (Round round : rounds.values()) next = Math.min(next, round.headDue);
+        long wait = next == Long.MAX_VALUE ? IDLE_PARK_NANOS : TimeUnit.MILLISECONDS.toNanos(next - clock.getAsLong());
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(1), Math.min(IDLE_PARK_NANOS, wait));
+    }
+
+    private Round round(Building enclosure) {
+        Round round = rounds.get(enclosure);
+        return round != null ? round : rounds.computeIfAbsent(enclosure, Round::new);
+    }
+
+    private static class Round {
+        final Building enclosure;
+        final ReentrantLock lock = new ReentrantLock();
+        final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.due));
+        // Live entries that have come due, oldest first, and how many there are per task.
+        final ArrayDeque<Entry> ready = new ArrayDeque<>();
+        final int[] due = new int[Task.values().length];
+        final LongAdder stolen = new LongAdder();
+        // Earliest due time, readable without the lock so idle handlers can pick a victim.
+        volatile long headDue = Long.MAX_VALUE;
+
+        Round(Building enclosure) { this.enclosure = enclosure; }
+        // The rest run under the lock.
+        void sweep(long now) {
+            Entry e;
+            while ((e = heap.peek()) != null && e.due <= now) {
+                heap.poll();
+                if (e.version != e.care.version) continue;
+                e.ready = true;
+                due[e.task.ordinal()]++;
+                ready.addLast(e);
+            }
+        }
+        void unready(Entry e) {
+            e.ready = false;
+            due[e.task.ordinal()]--;
+        }
+        void publishHead() {
+            Entry first = ready.peekFirst(), head = heap.peek();
+            long next = head == null ? Long.MAX_VALUE : head.due;
+            headDue = first == null ? next : Math.min(first.due, next);
+        }
+        // A superseded entry stops counting at once; it is dropped when it reaches the front.
+        void retire(Entry e) {
+            lock.lock();
+            try {
+                if (e.ready) unready(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static class Care {
+        final Animal animal;
+        final long[] due = new long[Task.values().length];
+        // The current entry per task; guarded by the Care's monitor.
+        final Entry[] entries = new Entry[Task.values().length];
+        volatile int version;
+        Care(Animal animal) { this.animal = animal; }
+    }
+
+    private static class Entry {
+        final Round round;
+        final Care care;
+        final Task task;
+        final int version;
+        long due;
+        boolean ready;
+        Entry(Round round, Care care, Task task, int version, long due) {
+            this.round = round;
+            this.care = care;
+            this.task = task;
+            this.version = version;
+            this.due = due;
+        }
+    }
+}
+
+class Handler extends Person {
+    public Handler(String name, Building location) { super(name, location); }
+    public void feed(Animal animal) {
+        if (zoo != null) {
+            zoo.getMetrics().fed(this);
+            zoo.getDayBook().record(DayBook.Activity.FEEDING, getId(), 1);
+        }
+        ZooEvents.emit(ZooEvent.FED, this, animal);
+        animal.eat();
+    }
+    public void exercise(Animal animal) {
+        if (zoo != null) {
+            zoo.getMetrics().exercised(this);
+            zoo.getDayBook().record(DayBook.Activity.EXERCISE, getId(), 1);
+        }
+        ZooEvents.emit(ZooEvent.EXERCISED, this, animal);
+        animal.roam();
+    }
+    public Condition examine(Animal animal, Zoo zoo) { return examine(animal, zoo, Condition.diagnose()); }
+    // Returns null if the animal is already being treated, or another examination got it into
+    // the ward first.
+    public Condition examine(Animal animal, Zoo zoo, Condition condition) {
+        Hospital hospital = zoo.getHospital();
+        if (hospital != null) hospital.checkJournaled(animal);
+        if (!animal.tryChangeHealth(HealthState.SICK)) return null;
+        if(hospital != null){
+            animal.setLocation(hospital);
+            if (!hospital.admitAnimal(animal, condition)) return null;
+        }
+        return condition;
     }
 }
 class Vendor extends Person {
     public Vendor(String name, Building location) { super(name, location); }
-    public void sell() { System.out.println(name + " at the " + location.getName() + " is selling goods."); }
+    public void sell() { ZooEvents.emit(ZooEvent.SELLING, this, location); }
 }
 class Visitor extends Person {
     private int age;
     private String ticketCode;
+    volatile boolean admitted;
     public Visitor(String name, Building location) { super(name, location); }
     public void setAge(int age) { this.age = age; }
+    public int getAge() { return age; }
     public String getTicketCode() { return ticketCode; }
     public void setTicketCode(String code) { this.ticketCode = code; }
+    public boolean isAdmitted() { return admitted; }
+    // Like goTo, but respects the destination's capacity; false if it is full.
+    public boolean tryGoTo(Building destination) {
+        if (zoo == null || destination == location) {
+            goTo(destination);
+            return true;
+        }
+        if (!zoo.getAdmissions().tryReserve(destination)) return false;
+        moveTo(destination, true);
+        return true;
+    }
+    public void leaveZoo() {
+        Building from = this.location;
+        this.location = null;
+        if (zoo != null) {
+            zoo.getOccupancy().left(from);
+            zoo.getAdmissions().left(this, from);
+            zoo.removePerson(this);
+        }
+    }
 }
 class Veterinarian extends Person {
+    private static final int HEAL_BATCH = 256;
     public Veterinarian(String name, Building location) { super(name, location); }
     public void heal(Animal animal) {
         animal.setHealthy(true);
-        System.out.println("✅ Healed: " + animal.getName());
+        ZooEvents.emit(ZooEvent.HEALED, this, animal);
     }
+    // Safe to run from several vets at once: each batch drained from the ward is theirs alone.
     public void healAll(Hospital hospital){
-        System.out.println("Dr. " + name + " begins healing sick animals...");
-        List<Animal> toHeal = new ArrayList<>(hospital.getSickAnimals());
-        for(Animal a : toHeal){
-            heal(a);
-            String log = String.format("✅ %s (%s)", a.getName(), LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
-            hospital.logHealedAnimal(log);
-            System.out.println(a.getName() + " has been discharged and returned to enclosure.");
-            a.setLocation(a.getOriginalEnclosure()); // Return to original home
-            hospital.dischargeAnimal(a);
+        ZooEvents.emit(ZooEvent.HEAL_ROUND, this, null);
+        List<Animal> batch = new ArrayList<>(HEAL_BATCH);
+        while (hospital.drainWard(batch, HEAL_BATCH) > 0) {
+            for(Animal a : batch) discharge(hospital, a, System.currentTimeMillis());
+            batch.clear();
         }
     }
-    public void lecture() { System.out.println("Dr. " + name + " gives a science lecture on animal health and conservation."); }
+    // The animal has already left the ward; this signs it off and sends it home.
+    void discharge(Hospital hospital, Animal a, long epochMillis) {
+        heal(a);
+        hospital.logHealedAnimal(a, this, epochMillis);
+        ZooEvents.emit(ZooEvent.DISCHARGED, this, a);
+        a.setLocation(a.getOriginalEnclosure()); // Return to original home
+    }
+    public void lecture() { ZooEvents.emit(ZooEvent.LECTURE, this, null); }
+}
+
+// HEALTHY -> SICK on examination, -> IN_TREATMENT once admitted, -> HEALTHY when discharged.
+// A healthy animal may also be admitted directly, and a sick one may be declared healthy
+// without treatment; an animal under treatment can only leave by recovering.
+enum HealthState {
+    HEALTHY, SICK, IN_TREATMENT;
+
+    boolean canBecome(HealthState next) { return this != IN_TREATMENT || next != SICK; }
 }
 
 abstract class Animal {
+    private static final VarHandle HEALTH;
+    private static final VarHandle LOCATION;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEALTH = lookup.findVarHandle(Animal.class, "health", HealthState.class);
+            LOCATION = lookup.findVarHandle(Animal.class, "location", Building.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
     protected String name;
-    protected boolean isHealthy;
-    protected Building location;
+    protected volatile HealthState health;
+    protected volatile Building location;
     protected Enclosure originalEnclosure;
+    Zoo zoo;
+    int zooIndex = -1;
     public Animal(String name, Building location) {
         this.name = name;
-        this.isHealthy = true;
+        this.health = HealthState.HEALTHY;
         this.location = location;
         if(location instanceof Enclosure) this.originalEnclosure = (Enclosure) location;
     }
+    // Views over an AnimalStore keep their state in the store, not in these fields.
+    Animal() { }
+    // Numbered by the zoo that holds the animal, like Person ids.
+    public int getId() { return zooIndex + 1; }
     public String getName() { return name; }
-    public void setHealthy(boolean healthy) { isHealthy = healthy; }
+    public String getSpecies() { return getClass().getSimpleName(); }
+    public HealthState getHealthState() { return health; }
+    public boolean isHealthy() { return getHealthState() == HealthState.HEALTHY; }
+    public void setHealthy(boolean healthy) { changeHealth(healthy ? HealthState.HEALTHY : HealthState.SICK); }
+    void startTreatment() { changeHealth(HealthState.IN_TREATMENT); }
+    protected boolean compareAndSetHealthState(HealthState expected, HealthState next) {
+        return HEALTH.compareAndSet(this, expected, next);
+    }
+    private void changeHealth(HealthState next) {
+        if (!tryChangeHealth(next)) throw new IllegalStateException(getName() + " cannot go from " + getHealthState() + " to " + next);
+    }
+    // False, leaving the state alone, if the animal cannot go to next from where it is now.
+    boolean tryChangeHealth(HealthState next) {
+        HealthState current;
+        do {
+            current = getHealthState();
+            if (!current.canBecome(next)) return false;
+        } while (!compareAndSetHealthState(current, next));
+        ZooJournal j = zoo == null ? null : zoo.journal();
+        if (j != null) j.healthChanged(this);
+        return true;
+    }
     public Building getLocation() { return location; }
-    public void setLocation(Building location) { this.location = location; }
+    public void setLocation(Building location) {
+        Building from = (Building) LOCATION.getAndSet(this, location);
+        if (zoo != null) zoo.animalMoved(this, from);
+    }
     public Enclosure getOriginalEnclosure() { return originalEnclosure; }
-    public void eat() { System.out.println(name + " is eating."); }
-    public void sleep() { System.out.println(name + " is sleeping. Zzz..."); }
-    public abstract void roam();
-    public abstract void makeSound();
+    public void eat() { ZooEvents.emit(ZooEvent.ATE, this, null); }
+    public void sleep() { ZooEvents.emit(ZooEvent.SLEPT, this, null); }
+    public void roam() { ZooEvents.emit(ZooEvent.ROAMED, this, null); }
+    public void makeSound() { ZooEvents.emit(ZooEvent.SOUNDED, this, null); }
+    protected abstract String roamText();
+    protected abstract String soundText();
 }
 abstract class Feline extends Animal {
     public Feline(String name, Building location) { super(name, location); }
-    @Override public void roam() { System.out.println(name + " is prowling gracefully."); }
+    @Override protected String roamText() { return "is prowling gracefully."; }
 }
 class Tiger extends Feline {
     public Tiger(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " roars! \uD83D\uDC2F"); }
+    @Override protected String soundText() { return "roars! \uD83D\uDC2F"; }
 }
 class Lion extends Feline {
     public Lion(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " roars! \uD83E\uDD81"); }
+    @Override protected String soundText() { return "roars! \uD83E\uDD81"; }
 }
 class Cheetah extends Feline {
     public Cheetah(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " chirps!"); }
+    @Override protected String soundText() { return "chirps!"; }
 }
 abstract class Pachyderm extends Animal {
     public Pachyderm(String name, Building location) { super(name, location); }
-    @Override public void roam() { System.out.println(name + " is stomping around."); }
+    @Override protected String roamText() { return "is stomping around."; }
 }
 class Rhino extends Pachyderm {
     public Rhino(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " snorts!"); }
+    @Override protected String soundText() { return "snorts!"; }
 }
 class Elephant extends Pachyderm {
     public Elephant(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " trumpets! \uD83D\uDC18"); }
+    @Override protected String soundText() { return "trumpets! \uD83D\uDC18"; }
 }
 class Hippo extends Pachyderm {
     public Hippo(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " bellows!"); }
+    @Override protected String soundText() { return "bellows!"; }
 }
 abstract class Bird extends Animal {
     public Bird(String name, Building location) { super(name, location); }
-    @Override public void roam() { System.out.println(name + " is fluttering around."); }
+    @Override protected String roamText() { return "is fluttering around."; }
 }
 class Parrot extends Bird {
     public Parrot(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " squawks!"); }
+    @Override protected String soundText() { return "squawks!"; }
 }
 class Falcon extends Bird {
     public Falcon(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " screeches!"); }
+    @Override protected String soundText() { return "screeches!"; }
 }
 class Owl extends Bird {
     public Owl(String name, Building location) { super(name, location); }
-    @Override public void makeSound() { System.out.println(name + " hoots! \uD83E\uDD89"); }
+    @Override protected String soundText() { return "hoots! \uD83E\uDD89"; }
+}
+
+// Struct-of-arrays home for very large populations: one primitive column per attribute and all
+// names packed into a single UTF-8 pool, so an animal costs a few dozen bytes and a scan is a
+// loop over one array. Objects only appear when someone asks for a view. Meant for one writer
+// (a loader or a simulation loop); scans running alongside it may miss in-flight changes.
+class AnimalStore {
+    private static final HealthState[] STATES = HealthState.values();
+    private static final VarHandle HEALTH = MethodHandles.arrayElementVarHandle(byte[].class);
+    private int size;
+    private byte[] species;
+    private byte[] health;
+    private int[] location;
+    private int[] home;
+    private int[] meals;
+    private int[] exercises;
+    private int[] nameStart;
+    private byte[] names;
+    private int namesUsed;
+    // Buildings are stored as small ints; this is the table they index.
+    private final List<Building> buildings = new ArrayList<>();
+    private final Map<Building, Integer> buildingIds = new HashMap<>();
+
+    public AnimalStore(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        species = new byte[capacity];
+        health = new byte[capacity];
+        location = new int[capacity];
+        home = new int[capacity];
+        meals = new int[capacity];
+        exercises = new int[capacity];
+        nameStart = new int[capacity + 1];
+        names = new byte[capacity * 8];
+    }
+
+    public int add(String speciesName, String name, Enclosure enclosure) {
+        int slot = size;
+        if (slot == species.length) grow();
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (namesUsed + encoded.length > names.length) names = Arrays.copyOf(names, Math.max(names.length * 2, namesUsed + encoded.length));
+        System.arraycopy(encoded, 0, names, namesUsed, encoded.length);
+        nameStart[slot] = namesUsed;
+        namesUsed += encoded.length;
+        nameStart[slot + 1] = namesUsed;
+        species[slot] = (byte) Species.idOf(speciesName);
+        location[slot] = buildingId(enclosure);
+        home[slot] = location[slot];
+        size = slot + 1;
+        return slot;
+    }
+
+    public int size() { return size; }
+    public StoredAnimal get(int slot) { return new StoredAnimal(this, check(slot)); }
+
+    String nameAt(int slot) { return new String(names, nameStart[slot], nameStart[slot + 1] - nameStart[slot], StandardCharsets.UTF_8); }
+    int speciesAt(int slot) { return species[slot]; }
+    HealthState healthAt(int slot) { return STATES[health[slot]]; }
+    void setHealth(int slot, HealthState state) { health[slot] = (byte) state.ordinal(); }
+    boolean compareAndSetHealth(int slot, HealthState expected, HealthState next) {
+        return HEALTH.compareAndSet(health, slot, (byte) expected.ordinal(), (byte) next.ordinal());
+    }
+    public boolean isHealthy(int slot) { return health[check(slot)] == 0; }
+    public void setHealthy(int slot, boolean healthy) { setHealth(check(slot), healthy ? HealthState.HEALTHY : HealthState.SICK); }
+    Building locationOf(int slot) { return building(location[slot]); }
+    void setLocation(int slot, Building building) { location[slot] = buildingId(building); }
+    Enclosure homeOf(int slot) { return (Enclosure) building(home[slot]); }
+    void recordMeal(int slot) { meals[slot]++; }
+    void recordExercise(int slot) { exercises[slot]++; }
+    public int getMeals(int slot) { return meals[check(slot)]; }
+    public int getExercises(int slot) { return exercises[check(slot)]; }
+
+    public int countSick() {
+        int sick = 0;
+        for (int i = 0; i < size; i++) {
+            if (health[i] != 0) sick++;
+        }
+        return sick;
+    }
+    public List<Animal> getSickAnimals() {
+        List<Animal> sick = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (health[i] != 0) sick.add(new StoredAnimal(this, i));
+        }
+        return sick;
+    }
+    public Map<Building, Integer> countByLocation() {
+        int[] counts = new int[buildings.size()];
+        for (int i = 0; i < size; i++) {
+            if (location[i] >= 0) counts[location[i]]++;
+        }
+        Map<Building, Integer> byBuilding = new LinkedHashMap<>();
+        for (int b = 0; b < counts.length; b++) {
+            if (counts[b] > 0) byBuilding.put(buildings.get(b), counts[b]);
+        }
+        return byBuilding;
+    }
+    public int countIn(Building building) {
+        Integer id = buildingIds.get(building);
+        if (id == null) return 0;
+        int target = id, count = 0;
+        for (int i = 0; i < size; i++) {
+            if (location[i] == target) count++;
+        }
+        return count;
+    }
+    public List<Animal> getAnimalsIn(Building building) {
+        Integer id = buildingIds.get(building);
+        if (id == null) return List.of();
+        List<Animal> found = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (location[i] == id) found.add(new StoredAnimal(this, i));
+        }
+        return found;
+    }
+
+    private int buildingId(Building building) {
+        if (building == null) return -1;
+        Integer id = buildingIds.get(building);
+        if (id != null) return id;
+        buildings.add(building);
+        buildingIds.put(building, buildings.size() - 1);
+        return buildings.size() - 1;
+    }
+    private Building building(int id) { return id < 0 ? null : buildings.get(id); }
+    private int check(int slot) {
+        if (slot < 0 || slot >= size) throw new IndexOutOfBoundsException("No animal in slot " + slot);
+        return slot;
+    }
+    private void grow() {
+        int capacity = species.length * 2;
+        species = Arrays.copyOf(species, capacity);
+        health = Arrays.copyOf(health, capacity);
+        location = Arrays.copyOf(location, capacity);
+        home = Arrays.copyOf(home, capacity);
+        meals = Arrays.copyOf(meals, capacity);
+        exercises = Arrays.copyOf(exercises, capacity);
+        nameStart = Arrays.copyOf(nameStart, capacity + 1);
+    }
+}
+
+// A throwaway Animal backed by one slot of an AnimalStore. Two views of the same slot are
+// equal, so they work as keys in the hospital ward and anywhere else an Animal is expected.
+final class StoredAnimal extends Animal {
+    private final AnimalStore store;
+    private final int slot;
+
+    StoredAnimal(AnimalStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    public int getSlot() { return slot; }
+    // Numbered by slot, one series per store.
+    @Override public int getId() { return slot + 1; }
+    @Override public String getName() { return store.nameAt(slot); }
+    @Override public String getSpecies() { return Species.name(store.speciesAt(slot)); }
+    @Override public HealthState getHealthState() { return store.healthAt(slot); }
+    @Override protected boolean compareAndSetHealthState(HealthState expected, HealthState next) { return store.compareAndSetHealth(slot, expected, next); }
+    @Override public Building getLocation() { return store.locationOf(slot); }
+    @Override public void setLocation(Building location) { store.setLocation(slot, location); }
+    @Override public Enclosure getOriginalEnclosure() { return store.homeOf(slot); }
+    @Override public void eat() { store.recordMeal(slot); super.eat(); }
+    @Override public void roam() { store.recordExercise(slot); super.roam(); }
+    @Override protected String roamText() { return Species.prototype(store.speciesAt(slot)).roamText(); }
+    @Override protected String soundText() { return Species.prototype(store.speciesAt(slot)).soundText(); }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof StoredAnimal && ((StoredAnimal) o).store == store && ((StoredAnimal) o).slot == slot;
+    }
+    @Override public int hashCode() { return System.identityHashCode(store) * 31 + slot; }
 }